@@ -0,0 +1,355 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.sonar.scm.git.blame.BlameResult.BlameCommit;
+import org.sonar.scm.git.blame.BlameResult.BlameRun;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
+
+/**
+ * A cache of file blames, persisted on disk so that it can be reused across analyses.
+ * <p>
+ * Entries are keyed by the path of a file and the blob of its content in the start commit. A file that wasn't modified since
+ * the previous analysis is blamed from the cache, without traversing the history. All entries are computed with the same
+ * {@link #setSettings settings}, recorded in the file of the cache.
+ * The least recently used entries are evicted when the estimated size of the cache exceeds the configured maximum size.
+ */
+public class BlameCache {
+  private static final int MAGIC = 0x47464243;
+  private static final int FORMAT_VERSION = 2;
+  // rough estimation of the memory used by an entry, in addition to its variable data
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private final Path file;
+  private final long maxSizeInBytes;
+  // access-ordered, so that iteration starts with the least recently used entry
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private String settings = "";
+  private long sizeInBytes = 0;
+  private long hitCount = 0;
+  private long missCount = 0;
+  private boolean loaded = false;
+
+  /**
+   * @param file           file where the cache is persisted. It's created on {@link #save()} if it doesn't exist.
+   * @param maxSizeInBytes maximum estimated size of the cache. Least recently used entries are evicted to stay below it.
+   */
+  public BlameCache(Path file, long maxSizeInBytes) {
+    this.file = file;
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  /**
+   * Sets a description of the settings that affect the blame of a file, such as the diff algorithm. Entries computed with
+   * other settings are dropped, and a file saved with other settings is ignored when loaded.
+   */
+  synchronized void setSettings(String settings) {
+    if (!settings.equals(this.settings)) {
+      this.settings = settings;
+      entries.clear();
+      sizeInBytes = 0;
+    }
+  }
+
+  /**
+   * Loads the cache from its file, if it exists and was not loaded yet.
+   */
+  public synchronized void load() throws IOException {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!Files.exists(file)) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        // unknown format: start from an empty cache, which will be overwritten when saved
+        return;
+      }
+      if (!in.readUTF().equals(settings)) {
+        // computed with other settings, so none of the entries can be used
+        return;
+      }
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        Key key = new Key(in.readUTF(), readObjectId(in));
+        addEntry(key, Entry.read(in));
+      }
+    } catch (IOException e) {
+      // don't keep a partially loaded cache
+      entries.clear();
+      sizeInBytes = 0;
+      throw e;
+    }
+  }
+
+  /**
+   * Writes the cache to its file, replacing the previous content.
+   */
+  public synchronized void save() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.createTempFile(parent, "blame-cache", ".tmp");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(settings);
+        out.writeInt(entries.size());
+        // entries are written from the least to the most recently used, so that the order is preserved when loaded
+        for (Map.Entry<Key, Entry> e : entries.entrySet()) {
+          out.writeUTF(e.getKey().path);
+          e.getKey().blob.copyRawTo(out);
+          e.getValue().write(out);
+        }
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  /**
+   * @return estimation of the memory used by the entries of the cache, in bytes
+   */
+  public synchronized long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  /**
+   * If the blame of the file is in the cache, saves it in the result.
+   *
+   * @return whether the file was found in the cache
+   */
+  boolean prefill(String path, ObjectId blob, BlameResult blameResult) {
+    Entry entry = get(path, blob);
+    if (entry == null) {
+      return false;
+    }
+
+    int[] commitIndexes = new int[entry.commitIds.length];
+    for (int i = 0; i < commitIndexes.length; i++) {
+      commitIndexes[i] = blameResult.addCommit(entry.commitIds[i], entry.commitTimes[i], entry.authorEmails[i]);
+    }
+
+    blameResult.initialize(path, entry.lines);
+    int line = 0;
+    for (int i = 0; i < entry.runLengths.length; i++) {
+      blameResult.saveBlameData(path, line, entry.runLengths[i], commitIndexes[entry.runCommits[i]]);
+      line += entry.runLengths[i];
+    }
+    return true;
+  }
+
+  @CheckForNull
+  private synchronized Entry get(String path, ObjectId blob) {
+    Entry entry = entries.get(new Key(path, blob));
+    if (entry != null) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return entry;
+  }
+
+  /**
+   * Adds the blame of a file to the cache. Files with lines not blamed to any commit can't be cached.
+   */
+  void put(String path, ObjectId blob, FileBlame fileBlame) {
+    List<BlameRun> runs = new ArrayList<>();
+    for (BlameRun run : fileBlame.getRuns()) {
+      if (run.getCommitIndex() == BlameResult.NO_COMMIT) {
+        return;
+      }
+      runs.add(run);
+    }
+
+    Map<Integer, Integer> entryCommitByResultCommit = new HashMap<>();
+    List<BlameCommit> commits = new ArrayList<>();
+    int[] runLengths = new int[runs.size()];
+    int[] runCommits = new int[runs.size()];
+    for (int i = 0; i < runs.size(); i++) {
+      BlameRun run = runs.get(i);
+      runLengths[i] = run.getLength();
+      runCommits[i] = entryCommitByResultCommit.computeIfAbsent(run.getCommitIndex(), c -> {
+        commits.add(fileBlame.getCommit(run.getStartLine()));
+        return commits.size() - 1;
+      });
+    }
+
+    ObjectId[] commitIds = new ObjectId[commits.size()];
+    int[] commitTimes = new int[commits.size()];
+    String[] authorEmails = new String[commits.size()];
+    for (int i = 0; i < commits.size(); i++) {
+      commitIds[i] = commits.get(i).getId();
+      commitTimes[i] = commits.get(i).getCommitTime();
+      authorEmails[i] = commits.get(i).getAuthorEmail();
+    }
+
+    Entry entry = new Entry(fileBlame.lines(), runLengths, runCommits, commitIds, commitTimes, authorEmails);
+    synchronized (this) {
+      addEntry(new Key(path, blob), entry);
+    }
+  }
+
+  private void addEntry(Key key, Entry entry) {
+    Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      sizeInBytes -= previous.estimatedSize(key);
+    }
+    sizeInBytes += entry.estimatedSize(key);
+
+    Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+    while (sizeInBytes > maxSizeInBytes && it.hasNext()) {
+      Map.Entry<Key, Entry> eldest = it.next();
+      sizeInBytes -= eldest.getValue().estimatedSize(eldest.getKey());
+      it.remove();
+    }
+  }
+
+  private static ObjectId readObjectId(DataInputStream in) throws IOException {
+    byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+    in.readFully(raw);
+    return ObjectId.fromRaw(raw);
+  }
+
+  private static class Key {
+    private final String path;
+    private final ObjectId blob;
+
+    private Key(String path, ObjectId blob) {
+      this.path = path;
+      this.blob = blob;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key that = (Key) o;
+      return path.equals(that.path) && blob.equals(that.blob);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, blob);
+    }
+  }
+
+  /**
+   * Blame of a file, stored as runs of lines blamed to the same commit. Commits are stored in a small dictionary local to the entry.
+   */
+  private static class Entry {
+    private final int lines;
+    private final int[] runLengths;
+    private final int[] runCommits;
+    private final ObjectId[] commitIds;
+    private final int[] commitTimes;
+    private final String[] authorEmails;
+
+    private Entry(int lines, int[] runLengths, int[] runCommits, ObjectId[] commitIds, int[] commitTimes, String[] authorEmails) {
+      this.lines = lines;
+      this.runLengths = runLengths;
+      this.runCommits = runCommits;
+      this.commitIds = commitIds;
+      this.commitTimes = commitTimes;
+      this.authorEmails = authorEmails;
+    }
+
+    private long estimatedSize(Key key) {
+      long size = ENTRY_OVERHEAD + 2L * key.path.length() + 8L * runLengths.length;
+      for (String authorEmail : authorEmails) {
+        size += Constants.OBJECT_ID_LENGTH + 4 + 2L * authorEmail.length();
+      }
+      return size;
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+      out.writeInt(lines);
+      out.writeInt(commitIds.length);
+      for (int i = 0; i < commitIds.length; i++) {
+        commitIds[i].copyRawTo(out);
+        out.writeInt(commitTimes[i]);
+        out.writeUTF(authorEmails[i]);
+      }
+      out.writeInt(runLengths.length);
+      for (int i = 0; i < runLengths.length; i++) {
+        out.writeInt(runLengths[i]);
+        out.writeInt(runCommits[i]);
+      }
+    }
+
+    private static Entry read(DataInputStream in) throws IOException {
+      int lines = in.readInt();
+      int numCommits = in.readInt();
+      ObjectId[] commitIds = new ObjectId[numCommits];
+      int[] commitTimes = new int[numCommits];
+      String[] authorEmails = new String[numCommits];
+      for (int i = 0; i < numCommits; i++) {
+        commitIds[i] = readObjectId(in);
+        commitTimes[i] = in.readInt();
+        authorEmails[i] = in.readUTF();
+      }
+      int numRuns = in.readInt();
+      int[] runLengths = new int[numRuns];
+      int[] runCommits = new int[numRuns];
+      for (int i = 0; i < numRuns; i++) {
+        runLengths[i] = in.readInt();
+        runCommits[i] = in.readInt();
+      }
+      return new Entry(lines, runLengths, runCommits, commitIds, commitTimes, authorEmails);
+    }
+  }
+}
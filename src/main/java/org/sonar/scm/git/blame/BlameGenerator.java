@@ -23,11 +23,8 @@ import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.TreeSet;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
+import java.util.function.BooleanSupplier;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.eclipse.jgit.api.errors.NoHeadException;
@@ -43,26 +40,89 @@ import org.slf4j.LoggerFactory;
 
 public class BlameGenerator {
   private static final Logger LOG = LoggerFactory.getLogger(BlameGenerator.class);
+  /**
+   * Number of processed commits after which the commits parsed by the revision pool are released.
+   */
+  private static final int RELEASE_COMMITS_INTERVAL = 10_000;
 
-  private final TreeSet<GraphNode> queue = new TreeSet<>(GraphNode.TIME_COMPARATOR);
+  private final FrontierQueue queue = new FrontierQueue();
   private final Repository repository;
   private final FileBlamer fileBlamer;
   private final GraphNodeFactory graphNodeFactory;
 
   /**
-   * Revision pool used to acquire commits from.
+   * Revision pool used to acquire commits from. It doesn't retain the bodies of commits, and the commits it parsed are regularly
+   * released, so that its size depends on the commits in the queue rather than on the length of the history.
    */
   private final RevWalk revPool;
   private final BiConsumer<Integer, String> progressCallBack;
 
+  private ObjectId previousCommit = null;
+  private BlameResult previousResult = null;
+  private boolean computeGenerationNumbers = false;
+  private CommitGraph commitGraph = null;
+  private boolean simplifyHistory = false;
+  private int frontierWidth = 1;
+  private int releaseCommitsInterval = RELEASE_COMMITS_INTERVAL;
+  private BooleanSupplier stopCondition = () -> false;
+  private HistorySimplifier historySimplifier = null;
+  private GenerationNumbers generationNumbers;
+
   public BlameGenerator(Repository repository, FileBlamer fileBlamer, GraphNodeFactory graphNodeFactory, @Nullable BiConsumer<Integer, String> progressCallBack) {
     this.repository = repository;
     this.fileBlamer = fileBlamer;
     this.graphNodeFactory = graphNodeFactory;
     this.revPool = new RevWalk(repository);
+    this.revPool.setRetainBody(false);
     this.progressCallBack = progressCallBack;
   }
 
+  /**
+   * When the traversal reaches the given commit, the blame of the remaining regions is copied from a result previously computed
+   * from that commit, instead of continuing into older history.
+   */
+  public void setPreviousResult(@Nullable ObjectId previousCommit, @Nullable BlameResult previousResult) {
+    this.previousCommit = previousCommit;
+    this.previousResult = previousResult;
+  }
+
+  /**
+   * Whether generation numbers should be computed when the repository has no commit-graph file. See {@link GenerationNumbers}.
+   */
+  public void setComputeGenerationNumbers(boolean computeGenerationNumbers) {
+    this.computeGenerationNumbers = computeGenerationNumbers;
+  }
+
+  /**
+   * Whether commits that don't modify any of the files being blamed should be skipped. See {@link HistorySimplifier}.
+   */
+  public void setSimplifyHistory(boolean simplifyHistory) {
+    this.simplifyHistory = simplifyHistory;
+  }
+
+  /**
+   * Maximum number of nodes processed at the same time. Only nodes with a single parent and the same known generation number are
+   * processed together, so it requires generation numbers.
+   */
+  public void setFrontierWidth(int frontierWidth) {
+    this.frontierWidth = frontierWidth;
+  }
+
+  /**
+   * Condition checked before processing each commit. Once it's true, the traversal stops and the lines that are not blamed yet
+   * are left unassigned.
+   */
+  void setStopCondition(BooleanSupplier stopCondition) {
+    this.stopCondition = stopCondition;
+  }
+
+  /**
+   * Commit-graph of the repository. It's loaded by the generator if not set.
+   */
+  void setCommitGraph(@Nullable CommitGraph commitGraph) {
+    this.commitGraph = commitGraph;
+  }
+
   private void prepareStartCommit(@CheckForNull ObjectId startCommit) throws IOException, NoHeadException {
     TreeWalk treeWalk = new TreeWalk(revPool.getObjectReader());
     GraphNode graphNode;
@@ -89,23 +149,25 @@ public class BlameGenerator {
     return head;
   }
 
-  private void push(GraphNode newCommit) {
-    if (queue.contains(newCommit)) {
+  private void push(GraphNode newCommit) throws IOException {
+    if (historySimplifier != null) {
+      // the previous commit must be reached to copy the previous result
+      newCommit = historySimplifier.skipUnmodifiedCommits(newCommit, c -> c.equals(previousCommit));
+    }
+    if (newCommit.getCommit() != null) {
+      newCommit.setGeneration(generationNumbers.get(newCommit.getCommit()));
+    }
+    GraphNode existingCommit = newCommit.getCommit() == null ? null : queue.get(newCommit.getCommit());
+    if (existingCommit != null) {
       // this can happen when a branch forks creating another branch, and then they merge again.
       // From the merge commit, we'll traverse both branches, and we'll reach the commit before the fork twice
       // The solution is to merge all regions coming from both sides into that node.
-      GraphNode existingCommit = queue.ceiling(newCommit);
-      Map<PathAndOriginalPath, FileCandidate> newCommitFilesByPaths = newCommit.getAllFiles().stream()
-        .collect(Collectors.toMap(PathAndOriginalPath::new, f -> f));
-
-      Map<PathAndOriginalPath, FileCandidate> existingCommitFilesByPaths = existingCommit.getAllFiles().stream()
-        .collect(Collectors.toMap(PathAndOriginalPath::new, f -> f));
-
-      for (Map.Entry<PathAndOriginalPath, FileCandidate> newFiles : newCommitFilesByPaths.entrySet()) {
-        if (existingCommitFilesByPaths.containsKey(newFiles.getKey())) {
-          existingCommitFilesByPaths.get(newFiles.getKey()).mergeRegions(newFiles.getValue());
+      for (FileCandidate newFile : newCommit.getAllFiles()) {
+        FileCandidate existingFile = existingCommit.findFile(newFile.getPath(), newFile.getOriginalPath());
+        if (existingFile != null) {
+          existingFile.mergeRegions(newFile);
         } else {
-          existingCommit.addFile(newFiles.getValue());
+          existingCommit.addFile(newFile);
         }
       }
     } else {
@@ -113,15 +175,61 @@ public class BlameGenerator {
     }
   }
 
+  /**
+   * Number of processed commits after which the commits parsed by the revision pool are released. Only changed by tests, to release
+   * commits in small histories.
+   */
+  void setReleaseCommitsInterval(int releaseCommitsInterval) {
+    this.releaseCommitsInterval = releaseCommitsInterval;
+  }
+
   public void generateBlame(ObjectId startCommit) throws IOException, NoHeadException {
+    if (commitGraph == null) {
+      commitGraph = CommitGraph.load(repository);
+    }
+    generationNumbers = new GenerationNumbers(revPool, commitGraph, computeGenerationNumbers);
+    if (simplifyHistory) {
+      historySimplifier = new HistorySimplifier(revPool, new ChangedPathFilters(commitGraph));
+    }
     prepareStartCommit(startCommit);
 
-    for (int i = 1; !queue.isEmpty(); i++) {
-      GraphNode current = queue.pollFirst();
-      LOG.debug("{} Processing commit {}", i, current);
-      if (progressCallBack != null) {
-        String hash = current.getCommit() == null ? ObjectId.zeroId().getName() : current.getCommit().getName();
-        progressCallBack.accept(i, hash);
+    int i = 0;
+    int lastRelease = 0;
+    while (!queue.isEmpty()) {
+      if (stopCondition.getAsBoolean()) {
+        LOG.debug("Blame stopped with {} commits left to process", queue.size());
+        break;
+      }
+      if (i - lastRelease >= releaseCommitsInterval) {
+        releaseCommits();
+        lastRelease = i;
+      }
+      GraphNode current = queue.poll();
+      fileBlamer.prefetch(current, queue);
+      notifyProgress(++i, current);
+
+      if (canBeProcessedConcurrently(current)) {
+        List<GraphNode> batch = new ArrayList<>(frontierWidth);
+        batch.add(current);
+        // nodes with the same generation number can't be ancestors of each other
+        while (batch.size() < frontierWidth && !queue.isEmpty() && canBeProcessedConcurrently(queue.peek())
+          && queue.peek().getGeneration() == current.getGeneration()) {
+          GraphNode node = queue.poll();
+          notifyProgress(++i, node);
+          batch.add(node);
+        }
+        if (batch.size() > 1) {
+          processConcurrently(batch);
+          continue;
+        }
+      }
+
+      if (previousResult != null && current.getCommit() != null && current.getCommit().equals(previousCommit)) {
+        List<FileCandidate> remainingFiles = fileBlamer.copyBlameFromPreviousResult(current, previousResult);
+        if (remainingFiles.isEmpty()) {
+          continue;
+        }
+        current = new CommitGraphNode(current.getCommit(), remainingFiles);
       }
       if (current.getParentCount() > 0) {
         process(current);
@@ -130,9 +238,58 @@ public class BlameGenerator {
         fileBlamer.saveBlameDataForFilesInCommit(current);
       }
     }
+    if (historySimplifier != null) {
+      LOG.debug("Skipped {} commits that don't modify the blamed files", historySimplifier.getSkippedCommits());
+    }
     close();
   }
 
+  /**
+   * Commits of the nodes in the queue are kept by the nodes, and the parents they reference are parsed again with the emptied pool when
+   * they are reached. Nodes are matched by id, so it doesn't matter that the same commit may then be represented by two objects.
+   * <p>
+   * Disposing the pool also closes its reader, which is shared with the comparator of the file blamer, the history simplifier and
+   * the reads of the authors. They keep using it: this relies on JGit readers only releasing their cached resources when they are
+   * closed, and acquiring them again on the next read.
+   */
+  private void releaseCommits() {
+    revPool.dispose();
+    fileBlamer.releaseCommits();
+  }
+
+  private void notifyProgress(int i, GraphNode node) {
+    LOG.debug("{} Processing commit {}", i, node);
+    if (progressCallBack != null) {
+      String hash = node.getCommit() == null ? ObjectId.zeroId().getName() : node.getCommit().getName();
+      progressCallBack.accept(i, hash);
+    }
+  }
+
+  private boolean canBeProcessedConcurrently(GraphNode node) {
+    return frontierWidth > 1
+      && node.getGeneration() != GenerationNumbers.UNKNOWN
+      && node.getCommit() != null
+      && node.getParentCount() == 1
+      && !node.getCommit().equals(previousCommit);
+  }
+
+  /**
+   * Processes nodes that are not ancestors of each other at the same time. Only the comparison with the parents is concurrent:
+   * the resulting parent nodes are pushed and the blame is saved in this thread, in the order of the batch.
+   */
+  private void processConcurrently(List<GraphNode> batch) throws IOException {
+    for (GraphNode node : batch) {
+      revPool.parseHeaders(node.getParentCommit(0));
+    }
+    List<GraphNode> parents = fileBlamer.blameParentsConcurrently(batch);
+    for (int i = 0; i < batch.size(); i++) {
+      if (!parents.get(i).getAllFiles().isEmpty()) {
+        push(parents.get(i));
+      }
+      fileBlamer.saveBlameDataForFilesInCommit(batch.get(i));
+    }
+  }
+
   private void process(GraphNode commitCandidate) throws IOException {
     List<RevCommit> parentCommits = new ArrayList<>(commitCandidate.getParentCount());
 
@@ -164,35 +321,4 @@ public class BlameGenerator {
     queue.clear();
     fileBlamer.close();
   }
-
-  private static class PathAndOriginalPath {
-    private final String path;
-    private final String originalPath;
-
-    private PathAndOriginalPath(FileCandidate file) {
-      this(file.getPath(), file.getOriginalPath());
-    }
-
-    private PathAndOriginalPath(String path, String originalPath) {
-      this.path = path;
-      this.originalPath = originalPath;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
-      PathAndOriginalPath that = (PathAndOriginalPath) o;
-      return Objects.equals(path, that.path) && Objects.equals(originalPath, that.originalPath);
-    }
-
-    @Override
-    public int hashCode() {
-      return Objects.hash(path, originalPath);
-    }
-  }
 }
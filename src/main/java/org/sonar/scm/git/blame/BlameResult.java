@@ -19,14 +19,69 @@
  */
 package org.sonar.scm.git.blame;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
 
 public class BlameResult {
-  private final Map<String, FileBlame> fileBlameByPath = new HashMap<>();
+  /**
+   * Commit index used for lines that are not associated with any commit, for example lines modified in the working directory.
+   */
+  public static final int NO_COMMIT = -1;
+  // Commit index of lines that were not blamed yet. It's never exposed: such lines are reported with NO_COMMIT and are not assigned.
+  private static final int UNASSIGNED = -2;
+
+  // The result can be written by several threads, for different files or for different lines of the same file
+  private final Map<String, FileBlame> fileBlameByPath = new ConcurrentHashMap<>();
+  // Dictionary of all commits referenced by the blame. Files only store the index of the commit in this list.
+  private final List<BlameCommit> commits = Collections.synchronizedList(new ArrayList<>());
+  private final Map<ObjectId, Integer> commitIndexById = new HashMap<>();
+  private final Map<String, String> authorEmails = new HashMap<>();
+  private final boolean runLengthEncoding;
+  private final Consumer<FileBlame> resultConsumer;
+  private Consumer<FileBlame> completionListener = null;
+  // the completion listener and the result consumer are called by one thread at a time
+  private final Object completionLock = new Object();
+  private boolean partial = false;
+  private long prefetchUsedCount = 0;
+  private long prefetchWastedCount = 0;
+
+  public BlameResult() {
+    this(false);
+  }
+
+  /**
+   * @param runLengthEncoding whether file blames store runs of lines blamed to the same commit, instead of one entry per line.
+   *                          It uses much less memory for files with few authoring commits, but looking up a line is slower.
+   */
+  public BlameResult(boolean runLengthEncoding) {
+    this(runLengthEncoding, null);
+  }
+
+  /**
+   * @param resultConsumer if set, each file blame is given to the consumer as soon as all its lines are blamed, and it's then
+   *                       removed from this result. It's called by the thread that blamed the last lines of the file, but never
+   *                       by two threads at the same time.
+   */
+  public BlameResult(boolean runLengthEncoding, @Nullable Consumer<FileBlame> resultConsumer) {
+    this.runLengthEncoding = runLengthEncoding;
+    this.resultConsumer = resultConsumer;
+  }
 
   public Collection<FileBlame> getFileBlames() {
     return fileBlameByPath.values();
@@ -36,63 +91,486 @@ public class BlameResult {
     return fileBlameByPath;
   }
 
+  /**
+   * All distinct commits referenced by the file blames, indexed by {@link FileBlame#getCommitIndex(int)}.
+   */
+  public List<BlameCommit> getCommits() {
+    return Collections.unmodifiableList(commits);
+  }
+
+  /**
+   * Whether the blame was stopped before all the lines of all the files were blamed, for example because its deadline was reached.
+   * Lines that were not blamed are not {@link FileBlame#isAssigned assigned}.
+   */
+  public boolean isPartial() {
+    return partial;
+  }
+
+  /**
+   * Number of commits compared with their parent in advance by the lookahead, and whose comparison was then used by the blame.
+   * See {@link RepositoryBlameCommand#setLookaheadDepth(int)}.
+   */
+  public synchronized long getPrefetchUsedCount() {
+    return prefetchUsedCount;
+  }
+
+  /**
+   * Number of commits compared with their parent in advance by the lookahead, but whose comparison couldn't be used, for example
+   * because the commit was never reached or because files were blamed in the meantime.
+   */
+  public synchronized long getPrefetchWastedCount() {
+    return prefetchWastedCount;
+  }
+
+  synchronized void addPrefetchCounts(long usedCount, long wastedCount) {
+    prefetchUsedCount += usedCount;
+    prefetchWastedCount += wastedCount;
+  }
+
+  /**
+   * Ends the blame. Files that are not completely blamed at this point make the result partial, and they are given to the result
+   * consumer, if there's one, since they won't be completed. The completion listener is not called for them.
+   */
+  void finish() {
+    for (FileBlame fileBlame : List.copyOf(fileBlameByPath.values())) {
+      if (!fileBlame.isComplete()) {
+        partial = true;
+        synchronized (fileBlame) {
+          fileBlame.finish();
+        }
+        if (resultConsumer != null) {
+          fileBlameByPath.remove(fileBlame.getPath());
+          resultConsumer.accept(fileBlame);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets a listener called for each file once all its lines are blamed, before it's given to the result consumer.
+   */
+  void setCompletionListener(@Nullable Consumer<FileBlame> completionListener) {
+    this.completionListener = completionListener;
+  }
+
   public void initialize(String path, int size) {
-    fileBlameByPath.put(path, new FileBlame(path, size));
+    FileBlame fileBlame = new FileBlame(path, size, commits, runLengthEncoding);
+    fileBlameByPath.put(path, fileBlame);
+    if (size == 0) {
+      // nothing to blame in an empty file
+      complete(fileBlame);
+    }
+  }
+
+  /**
+   * Adds a commit to the dictionary, if it's not there yet.
+   *
+   * @return the index of the commit in the dictionary
+   */
+  public int addCommit(AnyObjectId commitId, Date commitDate, String authorEmail) {
+    return addCommit(commitId, (int) (commitDate.getTime() / 1000), authorEmail);
+  }
+
+  /**
+   * @param commitTime commit time in seconds since the epoch
+   */
+  synchronized int addCommit(AnyObjectId commitId, int commitTime, String authorEmail) {
+    Integer index = commitIndexById.get(commitId);
+    if (index != null) {
+      return index;
+    }
+    ObjectId id = commitId.copy();
+    String email = authorEmails.computeIfAbsent(authorEmail, Function.identity());
+    commits.add(new BlameCommit(id, commitTime, email));
+    commitIndexById.put(id, commits.size() - 1);
+    return commits.size() - 1;
+  }
+
+  /**
+   * @return the index of the commit in the dictionary, or {@link #NO_COMMIT} if it's not there
+   */
+  synchronized int findCommit(AnyObjectId commitId) {
+    Integer index = commitIndexById.get(commitId);
+    return index != null ? index : NO_COMMIT;
   }
 
   public void saveBlameDataForFile(@Nullable String commitHash, @Nullable Date commitDate, @Nullable String authorEmail, FileCandidate fileCandidate) {
+    int commitIndex = commitHash != null ? addCommit(ObjectId.fromString(commitHash), commitDate, authorEmail) : NO_COMMIT;
+    saveBlameDataForFile(commitIndex, fileCandidate);
+  }
+
+  /**
+   * Assigns all the regions left in the file candidate to the commit.
+   *
+   * @param commitIndex index returned by {@link #addCommit} or {@link #NO_COMMIT}
+   */
+  public void saveBlameDataForFile(int commitIndex, FileCandidate fileCandidate) {
+    FileBlame fileBlame = fileBlameByPath.get(fileCandidate.getOriginalPath());
+    if (fileBlame == null) {
+      // the file was already fully blamed and given to the result consumer
+      fileCandidate.clearRegions();
+      return;
+    }
+
+    boolean completed;
+    synchronized (fileBlame) {
+      boolean wasComplete = fileBlame.isComplete();
+      for (int i = 0; i < fileCandidate.getRegionCount(); i++) {
+        fileBlame.assign(fileCandidate.getResultStart(i), fileCandidate.getLength(i), commitIndex);
+      }
+      fileCandidate.clearRegions();
+      completed = !wasComplete && fileBlame.isComplete();
+    }
+
+    if (completed) {
+      complete(fileBlame);
+    }
+  }
+
+  /**
+   * Assigns a range of lines of a file to a commit.
+   */
+  void saveBlameData(String path, int startLine, int length, int commitIndex) {
+    FileBlame fileBlame = fileBlameByPath.get(path);
+    if (fileBlame == null) {
+      return;
+    }
+    synchronized (fileBlame) {
+      if (fileBlame.isComplete()) {
+        return;
+      }
+      fileBlame.assign(startLine, length, commitIndex);
+      if (!fileBlame.isComplete()) {
+        return;
+      }
+    }
+    complete(fileBlame);
+  }
+
+  /**
+   * Copies the blame of the lines in the regions of a file candidate from the blame of the same file content, computed previously.
+   * The regions of the candidate are cleared.
+   *
+   * @param source blame of the file content of the candidate, possibly from another {@link BlameResult}
+   * @return false if the source doesn't match the regions of the candidate, or if some lines of the regions are not blamed in the
+   * source because it's partial. Nothing is copied in that case.
+   */
+  boolean copyBlameData(FileCandidate fileCandidate, FileBlame source) {
+    for (int i = 0; i < fileCandidate.getRegionCount(); i++) {
+      int sourceStart = fileCandidate.getSourceStart(i);
+      int sourceEnd = sourceStart + fileCandidate.getLength(i);
+      if (sourceStart < 0 || sourceEnd > source.lines()) {
+        return false;
+      }
+      if (!source.isComplete()) {
+        for (int line = sourceStart; line < sourceEnd; line++) {
+          if (!source.isAssigned(line)) {
+            return false;
+          }
+        }
+      }
+    }
 
-    Region currentRegion;
-    while ((currentRegion = fileCandidate.getRegionList()) != null) {
-      int resLine = currentRegion.resultStart;
-      int resEnd = getResultEnd(currentRegion);
+    String path = fileCandidate.getOriginalPath();
+    for (int i = 0; i < fileCandidate.getRegionCount(); i++) {
+      int resultStart = fileCandidate.getResultStart(i);
+      int sourceStart = fileCandidate.getSourceStart(i);
+      int sourceEnd = sourceStart + fileCandidate.getLength(i);
+      int line = sourceStart;
+      while (line < sourceEnd) {
+        int sourceCommitIndex = source.getCommitIndex(line);
+        int runEnd = line + 1;
+        while (runEnd < sourceEnd && source.getCommitIndex(runEnd) == sourceCommitIndex) {
+          runEnd++;
+        }
+        BlameCommit commit = source.getCommit(line);
+        int commitIndex = commit != null ? addCommit(commit.getId(), commit.getCommitTime(), commit.getAuthorEmail()) : NO_COMMIT;
+        saveBlameData(path, resultStart + line - sourceStart, runEnd - line, commitIndex);
+        line = runEnd;
+      }
+    }
+    fileCandidate.clearRegions();
+    return true;
+  }
+
+  /**
+   * Adds the file blames of another result, computed for other files, to this result. The commits of the other result are added
+   * to the dictionary of this result, and the commit indexes of the added files are remapped accordingly.
+   * Files that were already given to the result consumer of the other result are not part of it, so they are not added.
+   */
+  public void merge(BlameResult other) {
+    partial |= other.partial;
+    addPrefetchCounts(other.getPrefetchUsedCount(), other.getPrefetchWastedCount());
+    int[] commitIndexes = new int[other.commits.size()];
+    for (int i = 0; i < commitIndexes.length; i++) {
+      BlameCommit commit = other.commits.get(i);
+      commitIndexes[i] = addCommit(commit.getId(), commit.getCommitTime(), commit.getAuthorEmail());
+    }
+    for (FileBlame source : other.getFileBlames()) {
+      FileBlame fileBlame = new FileBlame(source.getPath(), source.lines(), commits, runLengthEncoding);
+      for (BlameRun run : source.getRuns()) {
+        if (run.isAssigned()) {
+          fileBlame.assign(run.startLine, run.length, run.commitIndex == NO_COMMIT ? NO_COMMIT : commitIndexes[run.commitIndex]);
+        }
+      }
+      fileBlameByPath.put(fileBlame.getPath(), fileBlame);
+    }
+  }
 
-      FileBlame fileBlame = fileBlameByPath.get(fileCandidate.getOriginalPath());
-      for (; resLine < resEnd; resLine++) {
-        fileBlame.commitHashes[resLine] = commitHash;
-        fileBlame.commitDates[resLine] = commitDate;
-        fileBlame.authorEmails[resLine] = authorEmail;
+  private void complete(FileBlame fileBlame) {
+    synchronized (completionLock) {
+      if (completionListener != null) {
+        completionListener.accept(fileBlame);
       }
-      fileCandidate.setRegionList(currentRegion.next);
+      if (resultConsumer != null) {
+        fileBlameByPath.remove(fileBlame.getPath());
+        resultConsumer.accept(fileBlame);
+      }
+    }
+  }
+
+  /**
+   * A commit referenced by the blame. Only the information needed by the blame is kept, in a compact form.
+   */
+  public static class BlameCommit {
+    private final ObjectId id;
+    private final int commitTime;
+    private final String authorEmail;
+
+    BlameCommit(ObjectId id, int commitTime, String authorEmail) {
+      this.id = id;
+      this.commitTime = commitTime;
+      this.authorEmail = authorEmail;
+    }
+
+    public ObjectId getId() {
+      return id;
+    }
+
+    public String getHash() {
+      return id.getName();
+    }
+
+    /**
+     * @return the committer time, in seconds since the epoch
+     */
+    public int getCommitTime() {
+      return commitTime;
+    }
+
+    public Date getCommitDate() {
+      return new Date(commitTime * 1000L);
+    }
+
+    public String getAuthorEmail() {
+      return authorEmail;
     }
   }
 
-  private static int getResultEnd(Region r) {
-    return r.resultStart + r.length;
+  /**
+   * A range of contiguous lines of a file blamed to the same commit.
+   */
+  public static class BlameRun {
+    private final int startLine;
+    private final int length;
+    private final int commitIndex;
+    private final boolean assigned;
+
+    BlameRun(int startLine, int length, int commitIndex) {
+      this.startLine = startLine;
+      this.length = length;
+      this.assigned = commitIndex != UNASSIGNED;
+      this.commitIndex = assigned ? commitIndex : NO_COMMIT;
+    }
+
+    public int getStartLine() {
+      return startLine;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    /**
+     * @return index of the commit in {@link BlameResult#getCommits()}, or {@link BlameResult#NO_COMMIT}
+     */
+    public int getCommitIndex() {
+      return commitIndex;
+    }
+
+    /**
+     * @return false if the lines of the run were not blamed, because the blame was stopped before. See {@link BlameResult#isPartial()}.
+     */
+    public boolean isAssigned() {
+      return assigned;
+    }
   }
 
   public static class FileBlame {
     private final String path;
-    private final String[] commitHashes;
-    private final Date[] commitDates;
-    private final String[] authorEmails;
+    private final int numberLines;
+    private final List<BlameCommit> commits;
+    // Only one of the following is set, depending on whether the blame is run-length encoded
+    private final int[] commitIndexes;
+    private final BlameRuns runs;
+    // number of lines that were not assigned yet
+    private int remainingLines;
 
     public FileBlame(String path, int numberLines) {
+      this(path, numberLines, List.of(), false);
+    }
+
+    FileBlame(String path, int numberLines, List<BlameCommit> commits, boolean runLengthEncoding) {
       this.path = path;
-      this.commitHashes = new String[numberLines];
-      this.commitDates = new Date[numberLines];
-      this.authorEmails = new String[numberLines];
+      this.numberLines = numberLines;
+      this.commits = commits;
+      this.remainingLines = numberLines;
+      if (runLengthEncoding) {
+        this.commitIndexes = null;
+        this.runs = new BlameRuns();
+      } else {
+        this.commitIndexes = new int[numberLines];
+        this.runs = null;
+        Arrays.fill(commitIndexes, UNASSIGNED);
+      }
+    }
+
+    // callers must hold the lock of the file blame, unless it's not shared yet
+    void assign(int startLine, int length, int commitIndex) {
+      remainingLines -= length;
+      if (runs != null) {
+        runs.add(startLine, length, commitIndex);
+        if (remainingLines <= 0) {
+          // the file is complete, so it's sorted once here and reads never modify it
+          runs.sort();
+        }
+      } else {
+        Arrays.fill(commitIndexes, startLine, startLine + length, commitIndex);
+      }
+    }
+
+    /**
+     * Prepares a file that won't be completed to be read. Complete files are ready as soon as their last lines are assigned.
+     * Callers must hold the lock of the file blame.
+     */
+    void finish() {
+      if (runs != null) {
+        runs.sort();
+      }
     }
 
     public String getPath() {
       return path;
     }
 
+    /**
+     * @return whether all the lines of the file are blamed. It's always the case unless the result {@link BlameResult#isPartial() is partial}.
+     */
+    public boolean isComplete() {
+      return remainingLines <= 0;
+    }
+
+    /**
+     * @return false if the line was not blamed, because the blame was stopped before. Its commit index is then {@link BlameResult#NO_COMMIT}.
+     */
+    public boolean isAssigned(int line) {
+      return getInternalCommitIndex(line) != UNASSIGNED;
+    }
+
+    /**
+     * @return index of the commit in {@link BlameResult#getCommits()} for the given line, or {@link BlameResult#NO_COMMIT}
+     */
+    public int getCommitIndex(int line) {
+      int index = getInternalCommitIndex(line);
+      return index == UNASSIGNED ? NO_COMMIT : index;
+    }
+
+    private int getInternalCommitIndex(int line) {
+      Objects.checkIndex(line, numberLines);
+      return runs != null ? runs.find(line, UNASSIGNED) : commitIndexes[line];
+    }
+
+    /**
+     * @return the commit blamed for the given line, or null if the line is not associated with any commit
+     */
+    @CheckForNull
+    public BlameCommit getCommit(int line) {
+      int index = getCommitIndex(line);
+      return index == NO_COMMIT ? null : commits.get(index);
+    }
 
+    /**
+     * Runs of lines blamed to the same commit, sorted by line and covering all the lines of the file.
+     */
+    public Iterable<BlameRun> getRuns() {
+      return RunIterator::new;
+    }
+
+    // The following arrays are not stored, they are computed from the commit dictionary on each call
     public String[] getCommitHashes() {
-      return commitHashes;
+      return toArray(new String[numberLines], BlameCommit::getHash);
     }
 
     public Date[] getCommitDates() {
-      return commitDates;
+      return toArray(new Date[numberLines], BlameCommit::getCommitDate);
     }
 
     public String[] getAuthorEmails() {
-      return authorEmails;
+      return toArray(new String[numberLines], BlameCommit::getAuthorEmail);
     }
 
     public int lines() {
-      return commitHashes.length;
+      return numberLines;
+    }
+
+    private <T> T[] toArray(T[] array, Function<BlameCommit, T> valueOfCommit) {
+      for (BlameRun run : getRuns()) {
+        if (run.commitIndex != NO_COMMIT) {
+          Arrays.fill(array, run.startLine, run.startLine + run.length, valueOfCommit.apply(commits.get(run.commitIndex)));
+        }
+      }
+      return array;
+    }
+
+    private class RunIterator implements Iterator<BlameRun> {
+      private int line = 0;
+      private int run = 0;
+
+      @Override
+      public boolean hasNext() {
+        return line < numberLines;
+      }
+
+      @Override
+      public BlameRun next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int commitIndex;
+        int end;
+        if (runs != null) {
+          while (run < runs.size() && runs.start(run) + runs.length(run) <= line) {
+            run++;
+          }
+          if (run < runs.size() && runs.start(run) <= line) {
+            commitIndex = runs.commitIndex(run);
+            end = runs.start(run) + runs.length(run);
+          } else {
+            // lines that were never assigned
+            commitIndex = UNASSIGNED;
+            end = run < runs.size() ? runs.start(run) : numberLines;
+          }
+        } else {
+          commitIndex = commitIndexes[line];
+          end = line + 1;
+          while (end < numberLines && commitIndexes[end] == commitIndex) {
+            end++;
+          }
+        }
+        BlameRun blameRun = new BlameRun(line, end - line, commitIndex);
+        line = end;
+        return blameRun;
+      }
     }
   }
 }
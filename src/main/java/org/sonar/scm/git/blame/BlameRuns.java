@@ -0,0 +1,142 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Arrays;
+
+/**
+ * Run-length encoded blame of a file: each run assigns a range of contiguous lines to a commit index.
+ * Runs can be added in any order, and must then be {@link #sort() sorted} before any lookup. Lookups don't modify the runs, so
+ * once sorted they can be done by several threads at the same time.
+ */
+class BlameRuns {
+  private static final int INITIAL_CAPACITY = 4;
+
+  private int[] starts = new int[INITIAL_CAPACITY];
+  private int[] lengths = new int[INITIAL_CAPACITY];
+  private int[] commitIndexes = new int[INITIAL_CAPACITY];
+  private int size = 0;
+  private boolean sorted = true;
+
+  void add(int start, int length, int commitIndex) {
+    if (length == 0) {
+      return;
+    }
+    if (size > 0) {
+      int last = size - 1;
+      if (starts[last] + lengths[last] == start && commitIndexes[last] == commitIndex) {
+        lengths[last] += length;
+        return;
+      }
+      if (start < starts[last]) {
+        sorted = false;
+      }
+    }
+    if (size == starts.length) {
+      int newCapacity = size * 2;
+      starts = Arrays.copyOf(starts, newCapacity);
+      lengths = Arrays.copyOf(lengths, newCapacity);
+      commitIndexes = Arrays.copyOf(commitIndexes, newCapacity);
+    }
+    starts[size] = start;
+    lengths[size] = length;
+    commitIndexes[size] = commitIndex;
+    size++;
+  }
+
+  /**
+   * @return the commit index of the run containing the line, or {@link BlameResult#NO_COMMIT} if no run contains it
+   */
+  int find(int line) {
+    return find(line, BlameResult.NO_COMMIT);
+  }
+
+  /**
+   * @return the commit index of the run containing the line, or the given index if no run contains it
+   */
+  int find(int line, int notFoundIndex) {
+    checkSorted();
+    int low = 0;
+    int high = size - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] > line) {
+        high = mid - 1;
+      } else if (starts[mid] + lengths[mid] <= line) {
+        low = mid + 1;
+      } else {
+        return commitIndexes[mid];
+      }
+    }
+    return notFoundIndex;
+  }
+
+  int size() {
+    checkSorted();
+    return size;
+  }
+
+  int start(int run) {
+    return starts[run];
+  }
+
+  int length(int run) {
+    return lengths[run];
+  }
+
+  int commitIndex(int run) {
+    return commitIndexes[run];
+  }
+
+  private void checkSorted() {
+    if (!sorted) {
+      throw new IllegalStateException("Runs must be sorted before being read");
+    }
+  }
+
+  /**
+   * Sorts the runs by line, merging contiguous runs of the same commit. Must be called once all runs are added, before any lookup.
+   */
+  void sort() {
+    if (sorted) {
+      return;
+    }
+    // sort the positions of the runs by their start, then rebuild the arrays merging contiguous runs of the same commit
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = ((long) starts[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+
+    int[] oldStarts = starts;
+    int[] oldLengths = lengths;
+    int[] oldCommitIndexes = commitIndexes;
+    int oldSize = size;
+    starts = new int[oldSize];
+    lengths = new int[oldSize];
+    commitIndexes = new int[oldSize];
+    size = 0;
+    sorted = true;
+    for (long key : keys) {
+      int i = (int) key;
+      add(oldStarts[i], oldLengths[i], oldCommitIndexes[i]);
+    }
+  }
+}
@@ -24,7 +24,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nonnull;
 
 public class BlameThreadFactory implements ThreadFactory {
-  private static final String NAME_PREFIX = "git-blame-";
+  static final String NAME_PREFIX = "git-blame-";
   private final AtomicInteger count = new AtomicInteger(0);
 
   @Override
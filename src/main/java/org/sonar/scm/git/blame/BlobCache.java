@@ -0,0 +1,103 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A cache of the contents of blobs, bounded by the size of the contents it holds. The least recently used blobs are evicted first.
+ * <p>
+ * A blob is typically loaded as the parent file of a diff in one commit, and as the child file of a diff when the parent commit is
+ * processed. Blobs are immutable and identified by their content, so the cache can be shared by several blames, even of different
+ * repositories. It's safe to use from multiple threads.
+ */
+public class BlobCache {
+  // RawText keeps an int for the position of each line
+  private static final int BYTES_PER_LINE = 4;
+
+  private final long maxSizeInBytes;
+  // access-ordered, so that iteration starts with the least recently used blob
+  private final LinkedHashMap<ObjectId, RawText> rawTexts = new LinkedHashMap<>(16, 0.75f, true);
+  private long sizeInBytes = 0;
+  private long hitCount = 0;
+  private long missCount = 0;
+
+  /**
+   * @param maxSizeInBytes maximum size of the cached blob contents, in bytes
+   */
+  public BlobCache(long maxSizeInBytes) {
+    this.maxSizeInBytes = maxSizeInBytes;
+  }
+
+  @CheckForNull
+  synchronized RawText get(AnyObjectId blob) {
+    RawText rawText = rawTexts.get(blob);
+    if (rawText != null) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+    return rawText;
+  }
+
+  synchronized void put(AnyObjectId blob, RawText rawText) {
+    long size = sizeOf(rawText);
+    if (size > maxSizeInBytes) {
+      return;
+    }
+    RawText previous = rawTexts.put(blob.copy(), rawText);
+    if (previous != null) {
+      sizeInBytes -= sizeOf(previous);
+    }
+    sizeInBytes += size;
+
+    Iterator<Map.Entry<ObjectId, RawText>> it = rawTexts.entrySet().iterator();
+    while (sizeInBytes > maxSizeInBytes && it.hasNext()) {
+      sizeInBytes -= sizeOf(it.next().getValue());
+      it.remove();
+    }
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized int getEntryCount() {
+    return rawTexts.size();
+  }
+
+  public synchronized long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  private static long sizeOf(RawText rawText) {
+    return rawText.getRawContent().length + (long) BYTES_PER_LINE * rawText.size();
+  }
+}
@@ -48,14 +48,20 @@ import static org.eclipse.jgit.lib.FileMode.TYPE_MASK;
 public class BlobReader {
   private final Repository repository;
   private final UnaryOperator<String> fileContentProvider;
+  private final BlobCache blobCache;
 
   public BlobReader(Repository repository) {
     this(repository, null);
   }
 
   public BlobReader(Repository repository, @Nullable UnaryOperator<String> fileContentProvider) {
+    this(repository, fileContentProvider, null);
+  }
+
+  public BlobReader(Repository repository, @Nullable UnaryOperator<String> fileContentProvider, @Nullable BlobCache blobCache) {
     this.repository = repository;
     this.fileContentProvider = fileContentProvider;
+    this.blobCache = blobCache;
   }
 
   /**
@@ -126,7 +132,19 @@ public class BlobReader {
     return loadTextFromFile((FileTreeIterator) iter);
   }
 
-  private static RawText loadText(ObjectReader objectReader, ObjectId objectId) throws IOException {
+  private RawText loadText(ObjectReader objectReader, ObjectId objectId) throws IOException {
+    if (blobCache == null) {
+      return loadBlob(objectReader, objectId);
+    }
+    RawText rawText = blobCache.get(objectId);
+    if (rawText == null) {
+      rawText = loadBlob(objectReader, objectId);
+      blobCache.put(objectId, rawText);
+    }
+    return rawText;
+  }
+
+  private static RawText loadBlob(ObjectReader objectReader, ObjectId objectId) throws IOException {
     // No support for git Large File Storage (LFS). See implementation in Candidate#loadText
     var open = objectReader.open(objectId, Constants.OBJ_BLOB);
     return new RawText(open.getCachedBytes(Integer.MAX_VALUE));
@@ -0,0 +1,160 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.CheckForNull;
+
+/**
+ * Changed-path Bloom filter of a commit, read from the commit-graph. It tells which paths were changed by the commit compared to its
+ * first parent, with false positives but no false negatives. The paths of the directories of changed files are also in the filter.
+ */
+class ChangedPathFilter {
+  /**
+   * Version 1 of the hash function of git has a bug with bytes above 0x7f, which are treated as signed. Version 2 fixes it.
+   */
+  static final int HASH_VERSION_1 = 1;
+  static final int HASH_VERSION_2 = 2;
+
+  private static final int SEED0 = 0x293ae76f;
+  private static final int SEED1 = 0x7e646e2c;
+
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int length;
+  private final int hashVersion;
+  private final int hashCount;
+
+  ChangedPathFilter(ByteBuffer buffer, int offset, int length, int hashVersion, int hashCount) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+    this.hashVersion = hashVersion;
+    this.hashCount = hashCount;
+  }
+
+  int getHashVersion() {
+    return hashVersion;
+  }
+
+  /**
+   * @return false if the path was definitely not changed by the commit
+   */
+  boolean mayContain(@CheckForNull Key key) {
+    if (key == null || key.hashVersion != hashVersion) {
+      return true;
+    }
+    long bitCount = length * 8L;
+    for (int i = 0; i < hashCount; i++) {
+      long hash = Integer.toUnsignedLong(key.hash0 + i * key.hash1);
+      long bit = hash % bitCount;
+      if ((buffer.get(offset + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Hashes of a path, which can be computed once and used with the filters of all commits.
+   */
+  static class Key {
+    private final int hashVersion;
+    private final int hash0;
+    private final int hash1;
+
+    private Key(int hashVersion, byte[] path) {
+      this.hashVersion = hashVersion;
+      this.hash0 = murmur3(SEED0, path);
+      this.hash1 = murmur3(SEED1, path);
+    }
+
+    /**
+     * @return the key of the path, or null if it can't be computed for the given version of the hash function
+     */
+    @CheckForNull
+    static Key of(String path, int hashVersion) {
+      byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+      if (hashVersion == HASH_VERSION_2 || (hashVersion == HASH_VERSION_1 && isAscii(bytes))) {
+        return new Key(hashVersion, bytes);
+      }
+      return null;
+    }
+
+    int getHashVersion() {
+      return hashVersion;
+    }
+
+    private static boolean isAscii(byte[] bytes) {
+      for (byte b : bytes) {
+        if (b < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static int murmur3(int seed, byte[] data) {
+    final int c1 = 0xcc9e2d51;
+    final int c2 = 0x1b873593;
+    int h = seed;
+    int blocks = data.length / 4;
+
+    for (int i = 0; i < blocks; i++) {
+      int k = (data[i * 4] & 0xff)
+        | ((data[i * 4 + 1] & 0xff) << 8)
+        | ((data[i * 4 + 2] & 0xff) << 16)
+        | ((data[i * 4 + 3] & 0xff) << 24);
+      k *= c1;
+      k = Integer.rotateLeft(k, 15);
+      k *= c2;
+      h ^= k;
+      h = Integer.rotateLeft(h, 13);
+      h = h * 5 + 0xe6546b64;
+    }
+
+    int tail = blocks * 4;
+    int remaining = data.length & 3;
+    if (remaining > 0) {
+      int k = 0;
+      if (remaining >= 3) {
+        k ^= (data[tail + 2] & 0xff) << 16;
+      }
+      if (remaining >= 2) {
+        k ^= (data[tail + 1] & 0xff) << 8;
+      }
+      k ^= data[tail] & 0xff;
+      k *= c1;
+      k = Integer.rotateLeft(k, 15);
+      k *= c2;
+      h ^= k;
+    }
+
+    h ^= data.length;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.sonar.scm.git.blame.ChangedPathFilter.Key;
+
+/**
+ * Uses the changed-path filters of the commit-graph to find out, without comparing trees, that a commit didn't change any of the
+ * files being blamed. Filters are computed against the first parent, so they are only relevant for commits with a single parent.
+ */
+class ChangedPathFilters {
+  private final CommitGraph commitGraph;
+  // the hashes of a path are the same for all commits
+  private final Map<String, Key> keys = new ConcurrentHashMap<>();
+
+  ChangedPathFilters(CommitGraph commitGraph) {
+    this.commitGraph = commitGraph;
+  }
+
+  /**
+   * @return false if the commit definitely didn't change any of the paths, compared to its parent
+   */
+  boolean mayHaveChanged(RevCommit commit, Collection<String> paths) {
+    if (commit.getParentCount() != 1 || commitGraph.isEmpty()) {
+      return true;
+    }
+    ChangedPathFilter filter = commitGraph.getChangedPathFilter(commit);
+    if (filter == null) {
+      return true;
+    }
+
+    // most commits don't change anything in the top-level directory of a file, which is shared by many files
+    Map<String, Boolean> topLevelDirectories = new HashMap<>();
+    for (String path : paths) {
+      int slash = path.indexOf('/');
+      if (slash > 0) {
+        String directory = path.substring(0, slash);
+        boolean directoryMayHaveChanged = topLevelDirectories.computeIfAbsent(directory, d -> filter.mayContain(getKey(d, filter.getHashVersion())));
+        if (!directoryMayHaveChanged) {
+          continue;
+        }
+      }
+      if (filter.mayContain(getKey(path, filter.getHashVersion()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Key getKey(String path, int hashVersion) {
+    Key key = keys.get(path);
+    if (key == null || key.getHashVersion() != hashVersion) {
+      key = Key.of(path, hashVersion);
+      if (key != null) {
+        keys.put(path, key);
+      }
+    }
+    return key;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The commit-graph of a repository, written by git in a single file or in a chain of split files.
+ * A commit-graph that can't be read is ignored, and commits created after it was written are not in it.
+ */
+class CommitGraph {
+  private static final Logger LOG = LoggerFactory.getLogger(CommitGraph.class);
+  static final CommitGraph EMPTY = new CommitGraph(List.of());
+
+  private final List<CommitGraphFile> files;
+
+  CommitGraph(List<CommitGraphFile> files) {
+    this.files = files;
+  }
+
+  static CommitGraph load(Repository repository) {
+    ObjectDatabase objectDatabase = repository.getObjectDatabase();
+    if (!(objectDatabase instanceof ObjectDirectory)) {
+      return EMPTY;
+    }
+    Path info = ((ObjectDirectory) objectDatabase).getDirectory().toPath().resolve("info");
+    List<CommitGraphFile> files = new ArrayList<>();
+    try {
+      CommitGraphFile file = CommitGraphFile.open(info.resolve("commit-graph"));
+      if (file != null) {
+        files.add(file);
+      }
+      Path chain = info.resolve("commit-graphs").resolve("commit-graph-chain");
+      if (files.isEmpty() && Files.isRegularFile(chain)) {
+        for (String line : Files.readAllLines(chain, StandardCharsets.UTF_8)) {
+          if (!line.isBlank()) {
+            file = CommitGraphFile.open(chain.resolveSibling("graph-" + line.trim() + ".graph"));
+            if (file != null) {
+              files.add(file);
+            }
+          }
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      LOG.debug("Failed to read the commit-graph, it will be ignored", e);
+      return EMPTY;
+    }
+    return new CommitGraph(files);
+  }
+
+  boolean isEmpty() {
+    return files.isEmpty();
+  }
+
+  /**
+   * @return the generation number of the commit, or {@link GenerationNumbers#UNKNOWN} if it's not in the commit-graph
+   */
+  int getGeneration(AnyObjectId commit) {
+    for (CommitGraphFile file : files) {
+      int position = file.findCommit(commit);
+      if (position != CommitGraphFile.NOT_FOUND) {
+        return file.getGeneration(position);
+      }
+    }
+    return GenerationNumbers.UNKNOWN;
+  }
+
+  /**
+   * @return the changed-path filter of the commit, or null if it's not in the commit-graph or it has no filter
+   */
+  @CheckForNull
+  ChangedPathFilter getChangedPathFilter(AnyObjectId commit) {
+    for (CommitGraphFile file : files) {
+      int position = file.findCommit(commit);
+      if (position != CommitGraphFile.NOT_FOUND) {
+        return file.getChangedPathFilter(position);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Reads a commit-graph file written by git (see git's documentation of the commit-graph format).
+ * Only the chunks needed to find commits, their generation numbers and their changed-path filters are used.
+ * The file is memory mapped and can be read concurrently.
+ */
+class CommitGraphFile {
+  static final int NOT_FOUND = -1;
+  /**
+   * Generation number of commits that were written without one, by old versions of git.
+   */
+  static final int GENERATION_ZERO = 0;
+
+  private static final int SIGNATURE = 0x43475048; // "CGPH"
+  private static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+  private static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+  private static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+  private static final int CHUNK_BLOOM_INDEXES = 0x42494458; // "BIDX"
+  private static final int CHUNK_BLOOM_DATA = 0x42444154; // "BDAT"
+  private static final int BLOOM_DATA_HEADER_LENGTH = 12;
+
+  private static final int VERSION = 1;
+  private static final int HASH_VERSION_SHA1 = 1;
+  private static final int HEADER_LENGTH = 8;
+  private static final int CHUNK_TABLE_ENTRY_LENGTH = 12;
+  private static final int FANOUT_LENGTH = 256 * 4;
+  // tree id, 2 parent positions and 2 words for the generation number and the commit time
+  private static final int COMMIT_DATA_LENGTH = Constants.OBJECT_ID_LENGTH + 16;
+  private static final int GENERATION_OFFSET = Constants.OBJECT_ID_LENGTH + 8;
+
+  private final ByteBuffer buffer;
+  private final int commitCount;
+  private final int fanoutOffset;
+  private final int lookupOffset;
+  private final int commitDataOffset;
+  private final int bloomIndexesOffset;
+  private final int bloomDataOffset;
+
+  CommitGraphFile(ByteBuffer buffer) {
+    this.buffer = buffer;
+    if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != SIGNATURE) {
+      throw new IllegalStateException("Not a commit-graph file");
+    }
+    if (buffer.get(4) != VERSION || buffer.get(5) != HASH_VERSION_SHA1) {
+      throw new IllegalStateException("Unsupported commit-graph version");
+    }
+    int chunkCount = Byte.toUnsignedInt(buffer.get(6));
+    int fanout = NOT_FOUND;
+    int lookup = NOT_FOUND;
+    int commitData = NOT_FOUND;
+    int bloomIndexes = NOT_FOUND;
+    int bloomData = NOT_FOUND;
+    for (int i = 0; i < chunkCount; i++) {
+      int entry = HEADER_LENGTH + i * CHUNK_TABLE_ENTRY_LENGTH;
+      int id = buffer.getInt(entry);
+      int offset = Math.toIntExact(buffer.getLong(entry + 4));
+      if (id == CHUNK_OID_FANOUT) {
+        fanout = offset;
+      } else if (id == CHUNK_OID_LOOKUP) {
+        lookup = offset;
+      } else if (id == CHUNK_COMMIT_DATA) {
+        commitData = offset;
+      } else if (id == CHUNK_BLOOM_INDEXES) {
+        bloomIndexes = offset;
+      } else if (id == CHUNK_BLOOM_DATA) {
+        bloomData = offset;
+      }
+    }
+    if (fanout == NOT_FOUND || lookup == NOT_FOUND || commitData == NOT_FOUND) {
+      throw new IllegalStateException("Missing chunks in commit-graph file");
+    }
+    this.fanoutOffset = fanout;
+    this.lookupOffset = lookup;
+    this.commitDataOffset = commitData;
+    // filters are only usable if both chunks are present
+    boolean hasBloomFilters = bloomIndexes != NOT_FOUND && bloomData != NOT_FOUND;
+    this.bloomIndexesOffset = hasBloomFilters ? bloomIndexes : NOT_FOUND;
+    this.bloomDataOffset = hasBloomFilters ? bloomData : NOT_FOUND;
+    this.commitCount = buffer.getInt(fanoutOffset + FANOUT_LENGTH - 4);
+    if ((long) commitDataOffset + (long) commitCount * COMMIT_DATA_LENGTH > buffer.limit()
+      || (long) lookupOffset + (long) commitCount * Constants.OBJECT_ID_LENGTH > buffer.limit()) {
+      throw new IllegalStateException("Truncated commit-graph file");
+    }
+  }
+
+  /**
+   * Memory maps the file. Returns null if it doesn't exist.
+   */
+  @CheckForNull
+  static CommitGraphFile open(Path path) throws IOException {
+    if (!Files.isRegularFile(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new CommitGraphFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  int getCommitCount() {
+    return commitCount;
+  }
+
+  /**
+   * @return the position of the commit in the file, or {@link #NOT_FOUND}
+   */
+  int findCommit(AnyObjectId commit) {
+    int firstByte = commit.getFirstByte();
+    int low = firstByte == 0 ? 0 : buffer.getInt(fanoutOffset + (firstByte - 1) * 4);
+    int high = buffer.getInt(fanoutOffset + firstByte * 4);
+    byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+    commit.copyRawTo(id, 0);
+
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare(lookupOffset + mid * Constants.OBJECT_ID_LENGTH, id);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid;
+      } else {
+        return mid;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * @return the topological level of the commit at the given position, or {@link #GENERATION_ZERO} if it wasn't computed
+   */
+  int getGeneration(int position) {
+    return buffer.getInt(commitDataOffset + position * COMMIT_DATA_LENGTH + GENERATION_OFFSET) >>> 2;
+  }
+
+  boolean hasChangedPathFilters() {
+    return bloomIndexesOffset != NOT_FOUND;
+  }
+
+  /**
+   * @return the changed-path filter of the commit at the given position, or null if it wasn't computed
+   */
+  @CheckForNull
+  ChangedPathFilter getChangedPathFilter(int position) {
+    if (!hasChangedPathFilters()) {
+      return null;
+    }
+    int start = position == 0 ? 0 : buffer.getInt(bloomIndexesOffset + (position - 1) * 4);
+    int end = buffer.getInt(bloomIndexesOffset + position * 4);
+    if (end <= start) {
+      return null;
+    }
+    int hashVersion = buffer.getInt(bloomDataOffset);
+    int hashCount = buffer.getInt(bloomDataOffset + 4);
+    int dataOffset = bloomDataOffset + BLOOM_DATA_HEADER_LENGTH;
+    if (dataOffset + end > buffer.limit()) {
+      throw new IllegalStateException("Truncated commit-graph file");
+    }
+    return new ChangedPathFilter(buffer, dataOffset + start, end - start, hashVersion, hashCount);
+  }
+
+  private int compare(int offset, byte[] id) {
+    for (int i = 0; i < id.length; i++) {
+      int cmp = Integer.compare(Byte.toUnsignedInt(buffer.get(offset + i)), Byte.toUnsignedInt(id[i]));
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+}
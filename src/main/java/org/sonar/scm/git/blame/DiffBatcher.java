@@ -0,0 +1,198 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Groups the diffs of the files modified by a commit in batches, each batch being run by a single task. Submitting a task and waiting
+ * for it has a cost, which dominates when diffs are small, so small diffs are grouped until their batch costs much more than the
+ * task itself. Large diffs are scheduled first. When all the diffs of a commit cost less than a few tasks, they all go in a single
+ * batch, which is run inline.
+ * <p>
+ * The cost of a diff is estimated from the size of the compared blobs. Both the cost per byte and the cost of dispatching a task are
+ * measured while blaming, starting from rough initial values. The measures are bounded, so that a few outliers can't turn
+ * parallelism off. Since the cost of dispatching is only measured when a commit is split in several batches, commits that would
+ * run inline are regularly split anyway, so that an estimate that is too high is corrected.
+ */
+class DiffBatcher {
+  /**
+   * Size of diffs which cost is unknown, for example because they involve files of the working directory. They are not grouped.
+   */
+  static final long UNKNOWN_SIZE = -1;
+  static final double INITIAL_NANOS_PER_BYTE = 20;
+  static final double INITIAL_DISPATCH_NANOS = 50_000;
+  // a batch must cost at least this many times the dispatch of its task, so that the overhead is small
+  static final int MIN_BATCH_COST_IN_DISPATCHES = 10;
+  // more batches than threads, so that threads that are done early can take the remaining batches
+  static final int BATCHES_PER_THREAD = 2;
+  // weight of a new measure in the moving averages
+  private static final double SMOOTHING = 0.1;
+  static final double MIN_NANOS_PER_BYTE = 0.5;
+  static final double MAX_NANOS_PER_BYTE = 1_000;
+  static final double MIN_DISPATCH_NANOS = 1_000;
+  static final double MAX_DISPATCH_NANOS = 1_000_000;
+  // one in this many commits that would run inline is split, to measure the cost of dispatching
+  static final int DISPATCH_MEASURE_INTERVAL = 64;
+
+  private final int parallelism;
+  private double nanosPerByte = INITIAL_NANOS_PER_BYTE;
+  private double dispatchNanos = INITIAL_DISPATCH_NANOS;
+  private int inlineCount = 0;
+
+  /**
+   * @param parallelism number of diffs that can run at the same time
+   */
+  DiffBatcher(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Groups diffs in batches, from the largest to the smallest, so that the batches of the largest diffs come first and are
+   * submitted first. A diff of unknown size always gets its own batch.
+   *
+   * @param diffs diffs to run
+   * @param sizes estimated number of bytes compared by each diff, or {@link #UNKNOWN_SIZE}
+   * @return the batches. If there is only one, it should be run inline.
+   */
+  <T> List<Batch<T>> batch(List<T> diffs, long[] sizes) {
+    long totalSize = 0;
+    for (long size : sizes) {
+      totalSize = add(totalSize, size);
+    }
+    if (diffs.size() <= 1) {
+      return List.of(new Batch<>(diffs, totalSize));
+    }
+    double costPerByte;
+    double minBatchCost;
+    boolean measureDispatch = false;
+    synchronized (this) {
+      costPerByte = nanosPerByte;
+      minBatchCost = dispatchNanos * MIN_BATCH_COST_IN_DISPATCHES;
+      if (totalSize != UNKNOWN_SIZE && totalSize * costPerByte < 2 * minBatchCost) {
+        inlineCount++;
+        if (inlineCount % DISPATCH_MEASURE_INTERVAL != 0) {
+          return List.of(new Batch<>(diffs, totalSize));
+        }
+        measureDispatch = true;
+      }
+    }
+
+    double targetBatchCost;
+    if (measureDispatch) {
+      // two batches are enough to measure the dispatch of a task
+      targetBatchCost = totalSize * costPerByte / 2;
+    } else {
+      targetBatchCost = Math.max(minBatchCost, totalSize * costPerByte / (parallelism * BATCHES_PER_THREAD));
+    }
+    List<Batch<T>> batches = new ArrayList<>();
+    Batch<T> batch = new Batch<>();
+    for (int i : largestFirst(sizes)) {
+      if (sizes[i] == UNKNOWN_SIZE) {
+        batches.add(new Batch<>(List.of(diffs.get(i)), UNKNOWN_SIZE));
+        continue;
+      }
+      batch.diffs.add(diffs.get(i));
+      batch.size += sizes[i];
+      if (batch.size * costPerByte >= targetBatchCost) {
+        batches.add(batch);
+        batch = new Batch<>();
+      }
+    }
+    if (!batch.diffs.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+
+  /**
+   * Indexes of the diffs from the largest to the smallest, diffs of unknown size first. Starting with the largest diffs shortens
+   * the time spent waiting for the last diffs of a commit, since the small ones fill the threads that are done early.
+   */
+  private static Integer[] largestFirst(long[] sizes) {
+    Integer[] indexes = new Integer[sizes.length];
+    for (int i = 0; i < sizes.length; i++) {
+      indexes[i] = i;
+    }
+    Arrays.sort(indexes, Comparator.comparingLong((Integer i) -> sizes[i] == UNKNOWN_SIZE ? Long.MAX_VALUE : sizes[i]).reversed());
+    return indexes;
+  }
+
+  private static long add(long size1, long size2) {
+    return size1 == UNKNOWN_SIZE || size2 == UNKNOWN_SIZE ? UNKNOWN_SIZE : (size1 + size2);
+  }
+
+  /**
+   * Records the time taken by a diff that was actually computed, including the load of the compared blobs. Diffs found in a cache
+   * must not be recorded, since they would make diffs look cheaper than they are.
+   *
+   * @param size number of bytes of the compared blobs
+   */
+  synchronized void recordDiff(long size, long nanos) {
+    if (size > 0) {
+      double average = nanosPerByte + SMOOTHING * ((double) nanos / size - nanosPerByte);
+      nanosPerByte = Math.min(MAX_NANOS_PER_BYTE, Math.max(MIN_NANOS_PER_BYTE, average));
+    }
+  }
+
+  /**
+   * Records the time between the submission of the first task for a commit and the start of its execution.
+   */
+  synchronized void recordDispatch(long nanos) {
+    double average = dispatchNanos + SMOOTHING * (nanos - dispatchNanos);
+    dispatchNanos = Math.min(MAX_DISPATCH_NANOS, Math.max(MIN_DISPATCH_NANOS, average));
+  }
+
+  synchronized double getNanosPerByte() {
+    return nanosPerByte;
+  }
+
+  synchronized double getDispatchNanos() {
+    return dispatchNanos;
+  }
+
+  static class Batch<T> {
+    private final List<T> diffs;
+    private long size;
+
+    private Batch() {
+      this(new ArrayList<>(), 0);
+    }
+
+    private Batch(List<T> diffs, long size) {
+      this.diffs = diffs;
+      this.size = size;
+    }
+
+    List<T> getDiffs() {
+      return diffs;
+    }
+
+    /**
+     * @return the estimated number of bytes compared by the diffs of the batch, or {@link #UNKNOWN_SIZE}
+     */
+    long getSize() {
+      return size;
+    }
+  }
+}
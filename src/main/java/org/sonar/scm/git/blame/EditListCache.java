@@ -0,0 +1,140 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Keeps the differences computed between pairs of blobs during a blame, so that a pair of blobs reached several times (for example
+ * through different paths or through merges) is only diffed once.
+ * Blobs of files in the working directory are identified by the zero id, so diffs that involve them are not cached.
+ * <p>
+ * The cache is bounded by the number of edits it holds. The least recently used diffs are evicted first, since most diffs are only
+ * used once, while the pairs reached again, for example where merged branches converge, can come late in the history.
+ */
+class EditListCache {
+  /**
+   * Bounds the memory used by the cache.
+   */
+  static final long MAX_EDITS = 1_000_000;
+
+  // access-ordered, so that iteration starts with the least recently used diff
+  private final LinkedHashMap<BlobPair, EditList> editLists = new LinkedHashMap<>(16, 0.75f, true);
+  private final long maxEdits;
+  private long editCount = 0;
+
+  EditListCache() {
+    this(MAX_EDITS);
+  }
+
+  EditListCache(long maxEdits) {
+    this.maxEdits = maxEdits;
+  }
+
+  static boolean isCacheable(ObjectId parentBlob, ObjectId childBlob) {
+    return !ObjectId.zeroId().equals(parentBlob) && !ObjectId.zeroId().equals(childBlob);
+  }
+
+  /**
+   * Returns the differences between the two blobs, computing them with the given function if they are not cached.
+   * The returned list must not be modified.
+   */
+  EditList get(ObjectId parentBlob, ObjectId childBlob, Supplier<EditList> diff) {
+    if (!isCacheable(parentBlob, childBlob)) {
+      return diff.get();
+    }
+    BlobPair key = new BlobPair(parentBlob, childBlob);
+    EditList editList;
+    synchronized (this) {
+      editList = editLists.get(key);
+    }
+    if (editList == null) {
+      // diffs are computed without holding the lock, so the same pair may rarely be diffed by two threads at the same time
+      editList = diff.get();
+      put(key, editList);
+    }
+    return editList;
+  }
+
+  private synchronized void put(BlobPair key, EditList editList) {
+    long weight = weightOf(editList);
+    if (weight > maxEdits) {
+      return;
+    }
+    EditList previous = editLists.put(key, editList);
+    if (previous != null) {
+      editCount -= weightOf(previous);
+    }
+    editCount += weight;
+
+    Iterator<Map.Entry<BlobPair, EditList>> it = editLists.entrySet().iterator();
+    while (editCount > maxEdits && it.hasNext()) {
+      editCount -= weightOf(it.next().getValue());
+      it.remove();
+    }
+  }
+
+  // at least one edit is counted for each list so that empty lists are bounded too
+  private static long weightOf(EditList editList) {
+    return Math.max(1, editList.size());
+  }
+
+  synchronized int size() {
+    return editLists.size();
+  }
+
+  synchronized long getEditCount() {
+    return editCount;
+  }
+
+  static class BlobPair {
+    private final ObjectId parentBlob;
+    private final ObjectId childBlob;
+
+    BlobPair(AnyObjectId parentBlob, AnyObjectId childBlob) {
+      this.parentBlob = parentBlob.copy();
+      this.childBlob = childBlob.copy();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      BlobPair that = (BlobPair) o;
+      return parentBlob.equals(that.parentBlob) && childBlob.equals(that.childBlob);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(parentBlob, childBlob);
+    }
+  }
+}
@@ -20,18 +20,25 @@
 package org.sonar.scm.git.blame;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -39,33 +46,143 @@ import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
+import org.sonar.scm.git.blame.DiffBatcher.Batch;
+import org.sonar.scm.git.blame.EditListCache.BlobPair;
 import org.sonar.scm.git.blame.FileTreeComparator.DiffFile;
 
 import static java.util.Objects.requireNonNull;
 
 public class FileBlamer {
   static final int NB_FILES_THRESHOLD_ONE_TREE_WALK = 50;
+  // saving the blame of a file is fast, so small nodes are saved in a single task
+  static final int MIN_FILES_PER_SAVE_TASK = 32;
 
   private final ExecutorService executor;
+  private final boolean ownsExecutor;
   private final BlobReader fileReader;
   private final DiffAlgorithm diffAlgorithm;
   private final RawTextComparator textComparator;
   private final BlameResult blameResult;
   private final FileTreeComparator fileTreeComparator;
-
+  private final EditListCache editListCache = new EditListCache();
+  // saves of the blame of processed nodes, which may still be running
+  private final Queue<Future<?>> pendingSaves = new ArrayDeque<>();
+  // comparators used to compare a merge commit with its parents other than the first one, concurrently
+  private final List<FileTreeComparator> parentComparators = new ArrayList<>();
+
+  private int parallelism;
+  private DiffBatcher diffBatcher;
   private ObjectReader objectReader;
+  private ObjectReaderPool readerPool;
+  private boolean reuseReaders = true;
+  private int lookaheadDepth = 0;
+  private LookaheadPrefetcher prefetcher = null;
+  private int frontierWidth = 1;
+  private BooleanSupplier stopCondition = () -> false;
+  private ThreadFactory frontierThreadFactory = new BlameThreadFactory();
+  private ExecutorService frontierExecutor = null;
+  // comparators used to process nodes of the frontier concurrently, each one by a single thread at a time
+  private final Queue<FileTreeComparator> frontierComparators = new ConcurrentLinkedQueue<>();
+  private final Queue<FileTreeComparator> availableFrontierComparators = new ConcurrentLinkedQueue<>();
 
   public FileBlamer(FileTreeComparator fileTreeComparator, DiffAlgorithm diffAlgorithm, RawTextComparator rawTextComparator, BlobReader fileReader,
     BlameResult blameResult, boolean multithreading) {
+    this(fileTreeComparator, diffAlgorithm, rawTextComparator, fileReader, blameResult,
+      multithreading ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new BlameThreadFactory()) : SameThreadExecutorService.INSTANCE,
+      true);
+  }
+
+  /**
+   * @param executor executor used to diff the files and to compare merge commits with their parents. It's not shut down by
+   *                 {@link #close()}, so it can be shared by several blames.
+   */
+  public FileBlamer(FileTreeComparator fileTreeComparator, DiffAlgorithm diffAlgorithm, RawTextComparator rawTextComparator, BlobReader fileReader,
+    BlameResult blameResult, ExecutorService executor) {
+    this(fileTreeComparator, diffAlgorithm, rawTextComparator, fileReader, blameResult, executor, false);
+  }
+
+  private FileBlamer(FileTreeComparator fileTreeComparator, DiffAlgorithm diffAlgorithm, RawTextComparator rawTextComparator, BlobReader fileReader,
+    BlameResult blameResult, ExecutorService executor, boolean ownsExecutor) {
     this.diffAlgorithm = diffAlgorithm;
     this.textComparator = rawTextComparator;
     this.fileReader = fileReader;
     this.blameResult = blameResult;
     this.fileTreeComparator = fileTreeComparator;
-    this.executor = multithreading ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new BlameThreadFactory()) : SameThreadExecutorService.INSTANCE;
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+    this.parallelism = getParallelism(executor);
+    this.diffBatcher = new DiffBatcher(parallelism);
+  }
+
+  /**
+   * Number of tasks of the executor that can run at the same time, used to split the diffs and the saves of a commit in tasks.
+   * By default, it's the size of the pool of the executor, bounded by the number of processors, or the number of processors if
+   * the pool isn't known, as with virtual threads, which are run by that many carrier threads. Must be set before {@link #initialize}.
+   */
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+    this.diffBatcher = new DiffBatcher(parallelism);
+  }
+
+  static int getParallelism(ExecutorService executor) {
+    if (executor == SameThreadExecutorService.INSTANCE) {
+      return 1;
+    }
+    // the diffs are bound by the processors, so larger pools don't run more of them at the same time
+    int processors = Runtime.getRuntime().availableProcessors();
+    if (executor instanceof ThreadPoolExecutor) {
+      return Math.min(((ThreadPoolExecutor) executor).getMaximumPoolSize(), processors);
+    }
+    if (executor instanceof ForkJoinPool) {
+      return Math.min(((ForkJoinPool) executor).getParallelism(), processors);
+    }
+    return processors;
+  }
+
+  /**
+   * Number of upcoming nodes to prepare in the executor. See {@link LookaheadPrefetcher}. It's ignored if the executor runs the tasks
+   * in the calling thread. Must be set before {@link #initialize}.
+   */
+  public void setLookaheadDepth(int lookaheadDepth) {
+    this.lookaheadDepth = lookaheadDepth;
+  }
+
+  /**
+   * Whether the readers borrowed by the tasks are given back to a pool and reused, or created for each task. Only disabled to
+   * measure the gain of the pool. Must be set before {@link #initialize}.
+   */
+  void setReuseReaders(boolean reuseReaders) {
+    this.reuseReaders = reuseReaders;
+  }
+
+  /**
+   * Maximum number of nodes that can be processed at the same time with {@link #blameParentsConcurrently}.
+   */
+  public void setFrontierWidth(int frontierWidth) {
+    this.frontierWidth = frontierWidth;
+  }
+
+  /**
+   * Factory of the threads processing the nodes of the frontier. They only coordinate: they wait for the comparisons and the diffs,
+   * which run in the executor. Defaults to platform threads.
+   */
+  public void setFrontierThreadFactory(ThreadFactory frontierThreadFactory) {
+    this.frontierThreadFactory = frontierThreadFactory;
+  }
+
+  /**
+   * Condition checked before each diff. Once it's true, the remaining diffs are skipped and the regions of the files that were not
+   * diffed are dropped, so that their lines are left unassigned instead of being blamed to the child commit.
+   */
+  public void setStopCondition(BooleanSupplier stopCondition) {
+    this.stopCondition = stopCondition;
   }
 
   /**
@@ -74,6 +191,12 @@ public class FileBlamer {
    */
   public void initialize(ObjectReader objectReader, GraphNode commit) {
     this.objectReader = objectReader;
+    this.readerPool = new ObjectReaderPool(objectReader, reuseReaders);
+    // prefetches done in the calling thread wouldn't overlap with the processing of the current node
+    if (lookaheadDepth > 0 && executor != SameThreadExecutorService.INSTANCE) {
+      prefetcher = new LookaheadPrefetcher(lookaheadDepth, fileTreeComparator, new ObjectReaderPool(objectReader, reuseReaders), objectReader,
+        executor, this::diff);
+    }
     if (commit.getAllFiles().size() < NB_FILES_THRESHOLD_ONE_TREE_WALK) {
       initializeForSmallFileSet(objectReader, commit);
     } else {
@@ -116,24 +239,195 @@ public class FileBlamer {
    * @param source - commit that will be used to associate blame data with remaining regions in files
    */
   public void saveBlameDataForFilesInCommit(GraphNode source) {
+    List<FileCandidate> files = new ArrayList<>();
+    for (FileCandidate file : source.getAllFiles()) {
+      if (file.hasRegions()) {
+        files.add(file);
+      }
+    }
+    if (files.isEmpty()) {
+      // the commit is only added to the dictionary if some lines are blamed to it
+      return;
+    }
     RevCommit commit = source.getCommit();
-    String commitHash = commit != null ? commit.getName() : null;
-    String authorEmail = commit != null ? commit.getAuthorIdent().getEmailAddress() : null;
-    Date commitDate = commit != null ? commit.getCommitterIdent().getWhen() : null;
-    for (FileCandidate sourceFile : source.getAllFiles()) {
-      if (sourceFile.getRegionList() != null) {
-        blameResult.saveBlameDataForFile(commitHash, commitDate, authorEmail, sourceFile);
+    int commitIndex = BlameResult.NO_COMMIT;
+    if (commit != null) {
+      commitIndex = blameResult.findCommit(commit);
+      if (commitIndex == BlameResult.NO_COMMIT) {
+        commitIndex = blameResult.addCommit(commit, commit.getCommitTime(), readAuthorEmail(commit));
+      }
+    }
+    if (executor == SameThreadExecutorService.INSTANCE) {
+      for (FileCandidate file : files) {
+        blameResult.saveBlameDataForFile(commitIndex, file);
       }
+      return;
+    }
+    saveBlameDataInBackground(commitIndex, files);
+  }
+
+  /**
+   * Saves the blame in tasks of the executor, while the next commits are processed. The regions are detached from the files of
+   * the node, so that the node can be modified while they are saved.
+   *
+   * @param files files of the node that have regions, which are replaced by the detached copies
+   */
+  private void saveBlameDataInBackground(int commitIndex, List<FileCandidate> files) {
+    for (int i = 0; i < files.size(); i++) {
+      FileCandidate sourceFile = files.get(i);
+      FileCandidate file = new FileCandidate(sourceFile.getOriginalPath(), sourceFile.getPath(), sourceFile.getBlob());
+      sourceFile.moveRegionsTo(file);
+      files.set(i, file);
+    }
+    int filesPerTask = Math.max(MIN_FILES_PER_SAVE_TASK, (files.size() + parallelism - 1) / parallelism);
+    for (int i = 0; i < files.size(); i += filesPerTask) {
+      List<FileCandidate> taskFiles = files.subList(i, Math.min(i + filesPerTask, files.size()));
+      pendingSaves.add(executor.submit(() -> taskFiles.forEach(f -> blameResult.saveBlameDataForFile(commitIndex, f))));
+    }
+    while (!pendingSaves.isEmpty() && pendingSaves.peek().isDone()) {
+      waitFor(pendingSaves.poll());
+    }
+  }
+
+  /**
+   * Waits until the blame of all the nodes given to {@link #saveBlameDataForFilesInCommit} is saved in the result.
+   */
+  public void waitForSaves() {
+    while (!pendingSaves.isEmpty()) {
+      waitFor(pendingSaves.poll());
+    }
+  }
+
+  private static void waitFor(Future<?> save) {
+    try {
+      save.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Copies the blame of the files of the node from a result previously computed for the commit of the node, instead of traversing
+   * its history.
+   *
+   * @return the files that are not in the previous result, and still need to be blamed
+   */
+  public List<FileCandidate> copyBlameFromPreviousResult(GraphNode node, BlameResult previousResult) {
+    List<FileCandidate> remainingFiles = new ArrayList<>();
+    for (FileCandidate file : node.getAllFiles()) {
+      if (!file.hasRegions()) {
+        continue;
+      }
+      FileBlame previousBlame = previousResult.getFileBlameByPath().get(file.getPath());
+      if (previousBlame == null || !blameResult.copyBlameData(file, previousBlame)) {
+        remainingFiles.add(file);
+      }
+    }
+    return remainingFiles;
+  }
+
+  /**
+   * Starts preparing the upcoming nodes in the background, if enabled.
+   *
+   * @param current  node being processed
+   * @param upcoming nodes in the order in which they will be processed
+   */
+  public void prefetch(GraphNode current, Iterable<GraphNode> upcoming) throws IOException {
+    if (prefetcher != null) {
+      prefetcher.prefetch(current, upcoming);
     }
   }
 
   public GraphNode blameParent(RevCommit parentCommit, GraphNode child) throws IOException {
-    List<DiffFile> diffFiles = fileTreeComparator.findMovedFiles(parentCommit, child.getCommit(), child.getAllPaths());
-    GraphNode parent = new CommitGraphNode(parentCommit, child.getAllFiles().size());
+    return blameParent(parentCommit, child, fileTreeComparator);
+  }
+
+  private GraphNode blameParent(RevCommit parentCommit, GraphNode child, FileTreeComparator comparator) throws IOException {
+    List<DiffFile> diffFiles = getPrefetchedDiff(child);
+    if (diffFiles == null) {
+      diffFiles = comparator.findMovedFiles(parentCommit, child.getCommit(), child.getAllPaths());
+    }
+    return blameParentWithDiff(parentCommit, child, diffFiles);
+  }
+
+  @CheckForNull
+  private List<DiffFile> getPrefetchedDiff(GraphNode child) {
+    if (prefetcher != null && child.getCommit() != null) {
+      return prefetcher.get(child.getCommit(), child.getAllPaths());
+    }
+    return null;
+  }
+
+  private GraphNode blameParentWithDiff(RevCommit parentCommit, GraphNode child, List<DiffFile> diffFiles) {
+    Set<String> diffPaths = diffFiles.stream().map(DiffFile::getNewPath).collect(Collectors.toSet());
+    GraphNode parent = new CommitGraphNode(parentCommit, 0);
+    // unmodified files have the same path and content in the parent, so they are handed over as they are. Only the files
+    // in the diff are left in the child.
+    parent.takeFilesFrom(child, diffPaths);
     blameWithFileDiffs(parent, child, diffFiles);
     return parent;
   }
 
+  /**
+   * Blames the first parent of each node, processing the nodes at the same time. The nodes must not be ancestors of each other,
+   * so that they don't share any file. Each node is processed by a thread of the frontier, which submits the comparison with the
+   * parent and the diffs to the executor and waits for them.
+   *
+   * @return the parent node of each node, in the same order
+   */
+  public List<GraphNode> blameParentsConcurrently(List<GraphNode> children) throws IOException {
+    if (frontierExecutor == null) {
+      frontierExecutor = Executors.newFixedThreadPool(frontierWidth, frontierThreadFactory);
+    }
+    List<Future<GraphNode>> futures = new ArrayList<>(children.size());
+    for (GraphNode child : children) {
+      futures.add(frontierExecutor.submit(() -> blameParentInFrontier(child)));
+    }
+
+    List<GraphNode> parents = new ArrayList<>(children.size());
+    try {
+      for (Future<GraphNode> f : futures) {
+        parents.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e);
+    }
+    return parents;
+  }
+
+  private GraphNode blameParentInFrontier(GraphNode child) throws IOException {
+    RevCommit parentCommit = child.getParentCommit(0);
+    List<DiffFile> diffFiles = getPrefetchedDiff(child);
+    if (diffFiles == null) {
+      FileTreeComparator comparator = borrowFrontierComparator();
+      try {
+        Future<List<DiffFile>> comparison = executor.submit(() -> comparator.findMovedFiles(parentCommit, child.getCommit(), child.getAllPaths()));
+        diffFiles = waitForParentDiffs(List.of(comparison)).get(0);
+      } finally {
+        availableFrontierComparators.add(comparator);
+      }
+    }
+    return blameParentWithDiff(parentCommit, child, diffFiles);
+  }
+
+  private FileTreeComparator borrowFrontierComparator() {
+    FileTreeComparator comparator = availableFrontierComparators.poll();
+    if (comparator == null) {
+      comparator = fileTreeComparator.fork(objectReader);
+      frontierComparators.add(comparator);
+    }
+    return comparator;
+  }
+
   public List<GraphNode> blameParents(List<RevCommit> parentCommits, GraphNode child) throws IOException {
     // the working directory should always have a single parent
     requireNonNull(child.getCommit());
@@ -141,15 +435,22 @@ public class FileBlamer {
     List<List<DiffFile>> fileTreeDiffs = new ArrayList<>(parentCommits.size());
     List<GraphNode> parentStatefulCommits = new ArrayList<>(parentCommits.size());
 
-    // first compute differences compared to each parent
+    // first compute differences compared to each parent. Each parent other than the first one is compared in another thread
+    // with its own comparator, while the first one is compared in this thread.
+    List<Future<List<DiffFile>>> parentDiffs = new ArrayList<>(parentCommits.size() - 1);
+    for (int i = 1; i < parentCommits.size(); i++) {
+      FileTreeComparator parentComparator = getParentComparator(i - 1);
+      RevCommit parentCommit = parentCommits.get(i);
+      parentDiffs.add(executor.submit(() -> parentComparator.findMovedFiles(parentCommit, child.getCommit(), child.getAllPaths())));
+    }
     for (RevCommit parentCommit : parentCommits) {
-      GraphNode parentStatefulCommit = new CommitGraphNode(parentCommit, child.getAllFiles().size());
-      parentStatefulCommits.add(parentStatefulCommit);
-
-      // diff files will include added,modified,rename,copy. It will not include unmodified files.
-      fileTreeDiffs.add(fileTreeComparator.findMovedFiles(parentCommit, child.getCommit(), child.getAllPaths()));
+      parentStatefulCommits.add(new CommitGraphNode(parentCommit, child.getAllFiles().size()));
     }
 
+    // diff files will include added,modified,rename,copy. It will not include unmodified files.
+    fileTreeDiffs.add(fileTreeComparator.findMovedFiles(parentCommits.get(0), child.getCommit(), child.getAllPaths()));
+    fileTreeDiffs.addAll(waitForParentDiffs(parentDiffs));
+
     // Detect unmodified files (same path)
     for (int i = 0; i < parentCommits.size(); i++) {
       Set<String> diffNewPaths = fileTreeDiffs.get(i).stream().map(DiffFile::getNewPath).collect(Collectors.toSet());
@@ -180,7 +481,83 @@ public class FileBlamer {
     return parentStatefulCommits;
   }
 
+  private FileTreeComparator getParentComparator(int index) {
+    while (parentComparators.size() <= index) {
+      parentComparators.add(fileTreeComparator.fork(objectReader));
+    }
+    return parentComparators.get(index);
+  }
+
+  private static List<List<DiffFile>> waitForParentDiffs(List<Future<List<DiffFile>>> parentDiffs) throws IOException {
+    List<List<DiffFile>> diffs = new ArrayList<>(parentDiffs.size());
+    try {
+      for (Future<List<DiffFile>> f : parentDiffs) {
+        diffs.add(f.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e);
+    }
+    return diffs;
+  }
+
+  /**
+   * The revision pool doesn't retain the bodies of commits, so the raw commit is read again the first time lines are blamed to it,
+   * and only the email of the author is parsed from it. The commit time is already parsed with the headers.
+   */
+  private String readAuthorEmail(RevCommit commit) {
+    try {
+      byte[] raw = commit.getRawBuffer();
+      if (raw == null) {
+        raw = objectReader.open(commit, Constants.OBJ_COMMIT).getCachedBytes();
+      }
+      int author = RawParseUtils.author(raw, 0);
+      PersonIdent ident = author < 0 ? null : RawParseUtils.parsePersonIdent(raw, author);
+      return ident == null ? "" : ident.getEmailAddress();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Forgets the commits parsed by the lookahead. Must be called between two nodes, by the thread processing them.
+   */
+  public void releaseCommits() {
+    if (prefetcher != null) {
+      prefetcher.releaseCommits();
+    }
+  }
+
   public void close() {
+    waitForSaves();
+    if (prefetcher != null) {
+      prefetcher.close();
+      blameResult.addPrefetchCounts(prefetcher.getUsedCount(), prefetcher.getWastedCount());
+    }
+    try {
+      if (frontierExecutor != null) {
+        // frontier tasks may still be running if the processing of the frontier failed, and they use the comparators and the readers
+        frontierExecutor.shutdown();
+        frontierExecutor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      parentComparators.forEach(FileTreeComparator::close);
+      frontierComparators.forEach(FileTreeComparator::close);
+      if (readerPool != null) {
+        readerPool.close();
+      }
+    }
+    if (!ownsExecutor) {
+      return;
+    }
     executor.shutdown();
     try {
       executor.awaitTermination(10, TimeUnit.SECONDS);
@@ -189,28 +566,110 @@ public class FileBlamer {
     }
   }
 
+  /**
+   * Splits the blame of the files in the diff with the parent. Unmodified files must have been moved to the parent already.
+   */
   private void blameWithFileDiffs(GraphNode parent, GraphNode child, List<DiffFile> diffFiles) {
-    Set<String> processedFilePaths = new HashSet<>();
-    List<Future<FileCandidate>> tasks = new ArrayList<>();
+    List<List<SplitTarget>> groups = new ArrayList<>();
+    // files that are compared with the same pair of blobs are grouped, so that the diff is computed once for all of them
+    Map<BlobPair, List<SplitTarget>> groupsByBlobs = new HashMap<>();
 
     // compare files in diffFiles
     for (DiffFile file : diffFiles) {
-      processedFilePaths.add(file.getNewPath());
-      if (file.getOldPath() != null) {
+      if (file.getOldPath() == null) {
         // added files don't have an old path
-        child.getFilesByPath(file.getNewPath())
-          .forEach(modifiedFile -> tasks.add(executor.submit(() -> splitBlameWithParent(file.getOldPath(), file.getOldObjectId(), modifiedFile))));
+        continue;
+      }
+      List<SplitTarget> fileGroup = null;
+      for (FileCandidate modifiedFile : child.getFilesByPath(file.getNewPath())) {
+        SplitTarget target = new SplitTarget(file.getOldPath(), file.getOldObjectId(), modifiedFile);
+        if (EditListCache.isCacheable(file.getOldObjectId(), modifiedFile.getBlob())) {
+          groupsByBlobs.computeIfAbsent(new BlobPair(file.getOldObjectId(), modifiedFile.getBlob()), k -> addGroup(groups)).add(target);
+        } else {
+          // files in the working directory all have the zero id, but the ones with the same path have the same content
+          if (fileGroup == null) {
+            fileGroup = addGroup(groups);
+          }
+          fileGroup.add(target);
+        }
       }
     }
 
-    // move unmodified files to the parent
-    for (FileCandidate f : child.getAllFiles()) {
-      if (!processedFilePaths.contains(f.getPath())) {
-        moveFileToParent(parent, f, f.getPath());
+    waitForTasks(parent, runDiffs(groups));
+  }
+
+  /**
+   * Runs the diffs of the groups, in batches sized by {@link DiffBatcher}. When there is a single batch, it's run in this thread.
+   */
+  private List<Future<List<FileCandidate>>> runDiffs(List<List<SplitTarget>> groups) {
+    if (executor == SameThreadExecutorService.INSTANCE) {
+      return List.of(CompletableFuture.completedFuture(splitBlameWithParentInGroups(groups)));
+    }
+    List<Batch<List<SplitTarget>>> batches = diffBatcher.batch(groups, estimateSizes(groups));
+    if (batches.size() == 1) {
+      return List.of(CompletableFuture.completedFuture(splitBlameWithParentInGroups(groups)));
+    }
+
+    List<Future<List<FileCandidate>>> tasks = new ArrayList<>(batches.size());
+    long submitTime = System.nanoTime();
+    for (Batch<List<SplitTarget>> batch : batches) {
+      boolean first = tasks.isEmpty();
+      tasks.add(executor.submit(() -> {
+        if (first) {
+          diffBatcher.recordDispatch(System.nanoTime() - submitTime);
+        }
+        return splitBlameWithParentInGroups(batch.getDiffs());
+      }));
+    }
+    return tasks;
+  }
+
+  private List<FileCandidate> splitBlameWithParentInGroups(List<List<SplitTarget>> groups) {
+    // the splits of a batch are done by a single task, which reuses its buffer
+    FileCandidate.Scratch scratch = new FileCandidate.Scratch();
+    List<FileCandidate> parents = new ArrayList<>();
+    for (List<SplitTarget> group : groups) {
+      parents.addAll(splitBlameWithParent(group, scratch));
+    }
+    return parents;
+  }
+
+  /**
+   * Estimates the number of bytes compared by the diff of each group, from the size of the blobs. Files in the working directory
+   * don't have a blob, so their size is unknown.
+   */
+  private long[] estimateSizes(List<List<SplitTarget>> groups) {
+    long[] sizes = new long[groups.size()];
+    ObjectReader reader = readerPool.borrow();
+    try {
+      for (int i = 0; i < groups.size(); i++) {
+        sizes[i] = estimateSize(reader, groups.get(i).get(0));
       }
+    } finally {
+      readerPool.release(reader);
     }
+    return sizes;
+  }
 
-    waitForTasks(parent, tasks);
+  private static long estimateSize(ObjectReader reader, SplitTarget target) {
+    ObjectId childBlob = target.source.getBlob();
+    if (target.parentBlob.equals(childBlob)) {
+      return 0;
+    }
+    if (!EditListCache.isCacheable(target.parentBlob, childBlob)) {
+      return DiffBatcher.UNKNOWN_SIZE;
+    }
+    try {
+      return reader.getObjectSize(target.parentBlob, Constants.OBJ_BLOB) + reader.getObjectSize(childBlob, Constants.OBJ_BLOB);
+    } catch (IOException e) {
+      return DiffBatcher.UNKNOWN_SIZE;
+    }
+  }
+
+  private static List<SplitTarget> addGroup(List<List<SplitTarget>> groups) {
+    List<SplitTarget> group = new ArrayList<>();
+    groups.add(group);
+    return group;
   }
 
   /**
@@ -219,18 +678,17 @@ public class FileBlamer {
    */
   private static void moveFileToParent(GraphNode parent, FileCandidate childFile, @Nullable String parentPath) {
     // child's region could be null if it was already moved to another parent
-    if (childFile.getRegionList() != null && parentPath != null) {
-      FileCandidate parentFile = new FileCandidate(childFile.getOriginalPath(), parentPath, childFile.getBlob(), childFile.getRegionList());
+    if (childFile.hasRegions() && parentPath != null) {
+      FileCandidate parentFile = new FileCandidate(childFile.getOriginalPath(), parentPath, childFile.getBlob());
+      childFile.moveRegionsTo(parentFile);
       parent.addFile(parentFile);
-      childFile.setRegionList(null);
     }
   }
 
-  private static void waitForTasks(GraphNode statefulParent, Collection<Future<FileCandidate>> tasks) {
+  private static void waitForTasks(GraphNode statefulParent, Collection<Future<List<FileCandidate>>> tasks) {
     try {
-      for (Future<FileCandidate> f : tasks) {
-        FileCandidate parent = f.get();
-        if (parent != null) {
+      for (Future<List<FileCandidate>> f : tasks) {
+        for (FileCandidate parent : f.get()) {
           statefulParent.addFile(parent);
         }
       }
@@ -239,36 +697,84 @@ public class FileBlamer {
     }
   }
 
-  @CheckForNull
-  private FileCandidate splitBlameWithParent(String parentPath, ObjectId parentObjectId, FileCandidate source) {
-    if (source.getRegionList() == null) {
-      // all regions may have been moved to another parent
-      return null;
+  /**
+   * Splits the blame of each file of the group with its file in the parent commit. All files in the group are compared with the same
+   * content in the parent commit, so the diff is only computed once.
+   *
+   * @return the files in the parent commit that have something to blame
+   */
+  private List<FileCandidate> splitBlameWithParent(List<SplitTarget> group, FileCandidate.Scratch scratch) {
+    if (stopCondition.getAsBoolean()) {
+      group.forEach(target -> target.source.clearRegions());
+      return List.of();
     }
-    FileCandidate parent = new FileCandidate(source.getOriginalPath(), parentPath, parentObjectId);
+    List<FileCandidate> parents = new ArrayList<>(group.size());
+    EditList editList = null;
+
+    for (SplitTarget target : group) {
+      FileCandidate source = target.source;
+      if (!source.hasRegions()) {
+        // all regions may have been moved to another parent
+        continue;
+      }
+      FileCandidate parent = new FileCandidate(source.getOriginalPath(), target.parentPath, target.parentBlob);
 
-    if (parent.getBlob().equals(source.getBlob())) {
-      moveUnmodifiedFileRegionsToParent(parent, source);
-      return parent;
-    }
+      if (parent.getBlob().equals(source.getBlob())) {
+        moveUnmodifiedFileRegionsToParent(parent, source);
+        parents.add(parent);
+        continue;
+      }
 
-    // ObjectReader is not thread safe, so we need to clone it
-    ObjectReader reader = objectReader.newReader();
+      if (editList == null) {
+        editList = diff(parent, source);
+      }
+      if (editList.isEmpty()) {
+        // Ignoring whitespace (or some other special comparator) can cause non-identical blobs to have an empty edit list
+        moveUnmodifiedFileRegionsToParent(parent, source);
+        parents.add(parent);
+        continue;
+      }
 
-    EditList editList = diffAlgorithm.diff(textComparator, fileReader.loadText(reader, parent), fileReader.loadText(reader, source));
-    if (editList.isEmpty()) {
-      // Ignoring whitespace (or some other special comparator) can cause non-identical blobs to have an empty edit list
-      moveUnmodifiedFileRegionsToParent(parent, source);
-      return parent;
+      parent.takeBlame(editList, source, scratch);
+      // if the parent has nothing left to blame, don't return it
+      if (parent.hasRegions()) {
+        parents.add(parent);
+      }
     }
+    return parents;
+  }
 
-    parent.takeBlame(editList, source);
-    // if the parent has nothing left to blame, don't return it
-    return parent.getRegionList() != null ? parent : null;
+  private EditList diff(FileCandidate parent, FileCandidate source) {
+    return editListCache.get(parent.getBlob(), source.getBlob(), () -> {
+      // ObjectReader is not thread safe, so each thread borrows its own
+      ObjectReader reader = readerPool.borrow();
+      try {
+        // only diffs that are computed are timed, to estimate the cost of the next ones
+        long start = System.nanoTime();
+        RawText parentText = fileReader.loadText(reader, parent);
+        RawText sourceText = fileReader.loadText(reader, source);
+        EditList editList = diffAlgorithm.diff(textComparator, parentText, sourceText);
+        diffBatcher.recordDiff((long) parentText.getRawContent().length + sourceText.getRawContent().length, System.nanoTime() - start);
+        return editList;
+      } finally {
+        readerPool.release(reader);
+      }
+    });
   }
 
   private static void moveUnmodifiedFileRegionsToParent(FileCandidate parent, FileCandidate child) {
-    parent.setRegionList(child.getRegionList());
-    child.setRegionList(null);
+    child.moveRegionsTo(parent);
+  }
+
+  private static class SplitTarget {
+    private final String parentPath;
+    private final ObjectId parentBlob;
+    private final FileCandidate source;
+
+    private SplitTarget(String parentPath, ObjectId parentBlob, FileCandidate source) {
+      this.parentPath = parentPath;
+      this.parentBlob = parentBlob;
+      this.source = source;
+    }
   }
 }
@@ -19,6 +19,7 @@
  */
 package org.sonar.scm.git.blame;
 
+import java.util.Arrays;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.eclipse.jgit.diff.Edit;
@@ -26,12 +27,21 @@ import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.lib.ObjectId;
 
 /**
- * Each candidate retains a {@link #regionList} describing sections of the result file the candidate has taken responsibility
+ * Each candidate retains a list of regions describing sections of the result file the candidate has taken responsibility
  * for either directly or indirectly through its history. Actual blame from this region list will be assigned to the candidate when its ancestor commit(s) are
  * themselves converted into Candidate objects and the ancestor's candidate uses {@link #takeBlame(EditList, FileCandidate)} to accept responsibility for sections
  * of the result.
+ * <p>
+ * The regions are packed in an array of ints, each region taking {@link #REGION_SIZE} consecutive values, so that splitting the
+ * blame with a parent doesn't allocate an object per region. {@link Region} is only used to create candidates and to inspect them.
  */
 class FileCandidate {
+  private static final int RESULT_START = 0;
+  private static final int SOURCE_START = 1;
+  private static final int LENGTH = 2;
+  static final int REGION_SIZE = 3;
+  private static final int INITIAL_CAPACITY = 4;
+
   private final String originalPath;
   /**
    * Path of the candidate file in the commit.
@@ -42,10 +52,11 @@ class FileCandidate {
    */
   private final ObjectId sourceBlob;
   /**
-   * Chain of regions this candidate may be blamed for. This list is always kept sorted by resultStart order,
-   * making it simple to merge-join with the sorted EditList during blame assignment.
+   * Regions this candidate may be blamed for. They are always kept sorted by result start, making it simple to merge-join them
+   * with the sorted EditList during blame assignment. Only the first {@link #regionCount} regions are valid.
    */
-  private Region regionList;
+  private int[] regions;
+  private int regionCount;
 
   FileCandidate(String originalPath, String path, ObjectId blob) {
     this(originalPath, path, blob, null);
@@ -55,16 +66,25 @@ class FileCandidate {
     this.originalPath = originalPath;
     this.sourcePath = path;
     this.sourceBlob = blob;
-    this.regionList = regionList;
+    setRegionList(regionList);
   }
 
   public ObjectId getBlob() {
     return sourceBlob;
   }
 
+  /**
+   * @return a copy of the regions, as a linked list, or null if there is no region left
+   */
   @CheckForNull
   public Region getRegionList() {
-    return regionList;
+    Region head = null;
+    for (int i = regionCount - 1; i >= 0; i--) {
+      Region r = new Region(getResultStart(i), getSourceStart(i), getLength(i));
+      r.next = head;
+      head = r;
+    }
+    return head;
   }
 
   public String getPath() {
@@ -75,52 +95,138 @@ class FileCandidate {
     return originalPath;
   }
 
+  /**
+   * Replaces the regions with a copy of the given linked list of regions.
+   */
   public void setRegionList(@Nullable Region regionList) {
-    this.regionList = regionList;
+    int count = 0;
+    for (Region r = regionList; r != null; r = r.next) {
+      count++;
+    }
+    regions = count == 0 ? null : new int[count * REGION_SIZE];
+    regionCount = 0;
+    for (Region r = regionList; r != null; r = r.next) {
+      append(r.resultStart, r.sourceStart, r.length);
+    }
+  }
+
+  boolean hasRegions() {
+    return regionCount > 0;
+  }
+
+  int getRegionCount() {
+    return regionCount;
+  }
+
+  int getResultStart(int region) {
+    return regions[region * REGION_SIZE + RESULT_START];
+  }
+
+  int getSourceStart(int region) {
+    return regions[region * REGION_SIZE + SOURCE_START];
+  }
+
+  int getLength(int region) {
+    return regions[region * REGION_SIZE + LENGTH];
+  }
+
+  void clearRegions() {
+    regions = null;
+    regionCount = 0;
   }
 
-  void takeBlame(EditList editList, FileCandidate child) {
-    blame(editList, this, child);
+  /**
+   * Moves all the regions of this candidate to the other candidate, replacing its own regions.
+   */
+  void moveRegionsTo(FileCandidate other) {
+    other.regions = regions;
+    other.regionCount = regionCount;
+    clearRegions();
   }
 
-  private static void blame(EditList editList, FileCandidate a, FileCandidate b) {
-    Region r = b.clearRegionList();
-    Region aTail = null;
-    Region bTail = null;
+  /**
+   * @param scratch buffer owned by the calling task, reused by its splits to write the regions left to the child
+   */
+  void takeBlame(EditList editList, FileCandidate child, Scratch scratch) {
+    blame(editList, this, child, scratch);
+  }
+
+  private static void blame(EditList editList, FileCandidate a, FileCandidate b, Scratch scratch) {
+    int count = b.regionCount;
+    int edits = editList.size();
+    int[] in = b.regions;
+    // the regions left to B are written in the buffer of the scratch
+    b.regions = scratch.takeBuffer(count + edits);
+    b.regionCount = 0;
+    // the regions of A are replaced once the first region is blamed on it. When A has no regions, it takes over the array of B:
+    // the regions of B are moved to its end, and the regions of A are written from its start. Each edit splits at most one region
+    // in two, so the regions of A never overwrite the regions of B that are not read yet.
+    boolean aStarted = false;
+    boolean aTakesOver = a.regions == null && count > 0;
+    int base = 0;
+    if (aTakesOver) {
+      if (in.length < (count + edits) * REGION_SIZE) {
+        in = Arrays.copyOf(in, Math.max((count + edits) * REGION_SIZE, in.length + (in.length >> 1)));
+      }
+      System.arraycopy(in, 0, in, edits * REGION_SIZE, count * REGION_SIZE);
+      base = edits;
+      a.regions = in;
+    }
+
+    int i = 0;
+    int resultStart = 0;
+    int sourceStart = 0;
+    int length = 0;
+    if (count > 0) {
+      resultStart = in[base * REGION_SIZE + RESULT_START];
+      sourceStart = in[base * REGION_SIZE + SOURCE_START];
+      length = in[base * REGION_SIZE + LENGTH];
+    }
 
     for (int eIdx = 0; eIdx < editList.size(); ) {
       // If there are no more regions left, neither side has any more responsibility for the result. Remaining edits can
       // be safely ignored.
-      if (r == null) {
-        return;
+      if (i >= count) {
+        break;
       }
 
       Edit e = editList.get(eIdx);
 
       // Edit ends before the next candidate region. Skip the edit.
-      if (e.getEndB() <= r.sourceStart) {
+      if (e.getEndB() <= sourceStart) {
         eIdx++;
         continue;
       }
 
       // Next candidate region starts before the edit. Assign some of the blame onto A, but possibly split and also on B.
-      if (r.sourceStart < e.getBeginB()) {
-        int d = e.getBeginB() - r.sourceStart;
-        if (r.length <= d) {
-          // Pass the blame for this region onto A.
-          Region next = r.next;
-          r.sourceStart = e.getBeginA() - d;
-          aTail = add(aTail, a, r);
-          r = next;
+      if (sourceStart < e.getBeginB()) {
+        int d = e.getBeginB() - sourceStart;
+        if (length <= d) {
+          // Pass the blame for this region onto A, and for the next ones as long as they end before the edit.
+          int beginB = e.getBeginB();
+          int shift = e.getBeginA() - beginB;
+          do {
+            a.add(aStarted, resultStart, sourceStart + shift, length);
+            aStarted = true;
+            i++;
+            if (i < count) {
+              resultStart = in[(base + i) * REGION_SIZE + RESULT_START];
+              sourceStart = in[(base + i) * REGION_SIZE + SOURCE_START];
+              length = in[(base + i) * REGION_SIZE + LENGTH];
+            }
+          } while (i < count && sourceStart + length <= beginB);
           continue;
         }
 
         // Split the region and assign some to A, some to B.
-        aTail = add(aTail, a, r.splitFirst(e.getBeginA() - d, d));
-        r.slideAndShrink(d);
+        a.add(aStarted, resultStart, e.getBeginA() - d, d);
+        aStarted = true;
+        resultStart += d;
+        sourceStart += d;
+        length -= d;
       }
 
-      // At this point e.getBeginB() <= r.sourceStart.
+      // At this point e.getBeginB() <= sourceStart.
 
       // An empty edit on the B side isn't relevant to this split, as it does not overlap any candidate region.
       if (e.getLengthB() == 0) {
@@ -129,11 +235,15 @@ class FileCandidate {
       }
 
       // If the region ends before the edit, blame on B.
-      int rEnd = r.sourceStart + r.length;
+      int rEnd = sourceStart + length;
       if (rEnd <= e.getEndB()) {
-        Region next = r.next;
-        bTail = add(bTail, b, r);
-        r = next;
+        b.add(true, resultStart, sourceStart, length);
+        i++;
+        if (i < count) {
+          resultStart = in[(base + i) * REGION_SIZE + RESULT_START];
+          sourceStart = in[(base + i) * REGION_SIZE + SOURCE_START];
+          length = in[(base + i) * REGION_SIZE + LENGTH];
+        }
         if (rEnd == e.getEndB()) {
           eIdx++;
         }
@@ -141,87 +251,149 @@ class FileCandidate {
       }
 
       // This region extends beyond the edit. Blame the first half of the region on B, and process the rest after.
-      int len = e.getEndB() - r.sourceStart;
-      bTail = add(bTail, b, r.splitFirst(r.sourceStart, len));
-      r.slideAndShrink(len);
+      int len = e.getEndB() - sourceStart;
+      b.add(true, resultStart, sourceStart, len);
+      resultStart += len;
+      sourceStart += len;
+      length -= len;
       eIdx++;
     }
 
-    if (r == null) {
-      return;
+    if (i < count) {
+      // For any remaining region, pass the blame onto A after shifting the source start to account for the difference between the two.
+      Edit e = editList.get(edits - 1);
+      int endB = e.getEndB();
+      int d = endB - e.getEndA();
+      if (!aStarted) {
+        a.regionCount = 0;
+        aStarted = true;
+      }
+      a.append(resultStart, endB <= sourceStart ? sourceStart - d : sourceStart, length);
+      int first = a.regionCount;
+      a.appendAll(in, base + i + 1, base + count);
+      if (d != 0) {
+        for (int k = first; k < a.regionCount; k++) {
+          int start = a.regions[k * REGION_SIZE + SOURCE_START];
+          if (endB <= start) {
+            a.regions[k * REGION_SIZE + SOURCE_START] = start - d;
+          }
+        }
+      }
     }
-
-    // For any remaining region, pass the blame onto A after shifting the source start to account for the difference between the two.
-    Edit e = editList.get(editList.size() - 1);
-    int endB = e.getEndB();
-    int d = endB - e.getEndA();
-    if (aTail == null) {
-      a.regionList = r;
-    } else {
-      aTail.next = r;
+    if (aTakesOver && !aStarted) {
+      a.regions = null;
     }
-    do {
-      if (endB <= r.sourceStart)
-        r.sourceStart -= d;
-      r = r.next;
-    } while (r != null);
+
+    // B keeps a copy of its regions, which are usually few since most of them are passed to A, so that the buffer is reused by
+    // the next split
+    scratch.buffer = b.regions;
+    b.regions = b.regionCount == 0 ? null : Arrays.copyOf(b.regions, b.regionCount * REGION_SIZE);
   }
 
-  private static Region add(@Nullable Region aTail, FileCandidate a, Region n) {
-    // If there is no region on the list, use only this one.
-    if (aTail == null) {
-      a.regionList = n;
-      n.next = null;
-      return n;
+  /**
+   * Adds a region after the last one, combining them if they are contiguous.
+   *
+   * @param keep whether the existing regions are kept. Otherwise, they are replaced by the new region.
+   */
+  private void add(boolean keep, int resultStart, int sourceStart, int length) {
+    if (!keep) {
+      regionCount = 0;
     }
-
     // If the prior region ends exactly where the new region begins in both the result and the source, combine these together into
     // one contiguous region. This occurs when intermediate commits have inserted and deleted lines in the middle of a region. Try
     // to report this region as a single region to the application, rather than in fragments.
-    if (aTail.resultStart + aTail.length == n.resultStart && aTail.sourceStart + aTail.length == n.sourceStart) {
-      aTail.length += n.length;
-      return aTail;
+    if (regionCount > 0) {
+      int last = (regionCount - 1) * REGION_SIZE;
+      int lastLength = regions[last + LENGTH];
+      if (regions[last + RESULT_START] + lastLength == resultStart && regions[last + SOURCE_START] + lastLength == sourceStart) {
+        regions[last + LENGTH] = lastLength + length;
+        return;
+      }
     }
 
     // Append the region onto the end of the list.
-    aTail.next = n;
-    n.next = null;
-    return n;
+    append(resultStart, sourceStart, length);
   }
 
-  private Region clearRegionList() {
-    Region r = regionList;
-    regionList = null;
-    return r;
+  private void append(int resultStart, int sourceStart, int length) {
+    ensureCapacity(regionCount + 1);
+    int offset = regionCount * REGION_SIZE;
+    regions[offset + RESULT_START] = resultStart;
+    regions[offset + SOURCE_START] = sourceStart;
+    regions[offset + LENGTH] = length;
+    regionCount++;
   }
 
   void mergeRegions(FileCandidate other) {
-    // regionList is always sorted by resultStart. Merge join two linked lists, preserving the ordering. Combine neighboring
+    // regions are always sorted by resultStart. Merge join both lists, preserving the ordering. Combine neighboring
     // regions to reduce the number of results seen by callers.
-    Region a = clearRegionList();
-    Region b = other.clearRegionList();
-    Region t = null;
-
-    while (a != null && b != null) {
-      if (a.resultStart < b.resultStart) {
-        Region n = a.next;
-        t = add(t, this, a);
-        a = n;
+    int aCount = regionCount;
+    int bCount = other.regionCount;
+    int[] b = other.regions;
+    other.clearRegions();
+    if (aCount + bCount == 0) {
+      clearRegions();
+      return;
+    }
+    // the regions of A are moved to the end of its array, so that the merged regions can be written from its start without
+    // overwriting the regions of A that are not read yet
+    ensureCapacity(aCount + bCount);
+    int[] a = regions;
+    System.arraycopy(a, 0, a, bCount * REGION_SIZE, aCount * REGION_SIZE);
+    regionCount = 0;
+
+    int i = bCount;
+    int aEnd = bCount + aCount;
+    int j = 0;
+    while (i < aEnd && j < bCount) {
+      if (a[i * REGION_SIZE + RESULT_START] < b[j * REGION_SIZE + RESULT_START]) {
+        add(true, a[i * REGION_SIZE + RESULT_START], a[i * REGION_SIZE + SOURCE_START], a[i * REGION_SIZE + LENGTH]);
+        i++;
       } else {
-        Region n = b.next;
-        t = add(t, this, b);
-        b = n;
+        add(true, b[j * REGION_SIZE + RESULT_START], b[j * REGION_SIZE + SOURCE_START], b[j * REGION_SIZE + LENGTH]);
+        j++;
       }
     }
 
-    if (a != null) {
-      Region n = a.next;
-      t = add(t, this, a);
-      t.next = n;
-    } else if (b != null) {
-      Region n = b.next;
-      t = add(t, this, b);
-      t.next = n;
+    // the first remaining region may be combined with the last one, the others are appended as they are
+    if (i < aEnd) {
+      add(true, a[i * REGION_SIZE + RESULT_START], a[i * REGION_SIZE + SOURCE_START], a[i * REGION_SIZE + LENGTH]);
+      appendAll(a, i + 1, aEnd);
+    } else if (j < bCount) {
+      add(true, b[j * REGION_SIZE + RESULT_START], b[j * REGION_SIZE + SOURCE_START], b[j * REGION_SIZE + LENGTH]);
+      appendAll(b, j + 1, bCount);
+    }
+  }
+
+  private void appendAll(int[] source, int from, int to) {
+    if (from >= to) {
+      return;
+    }
+    ensureCapacity(regionCount + to - from);
+    System.arraycopy(source, from * REGION_SIZE, regions, regionCount * REGION_SIZE, (to - from) * REGION_SIZE);
+    regionCount += to - from;
+  }
+
+  private void ensureCapacity(int count) {
+    if (regions == null) {
+      regions = new int[REGION_SIZE * Math.max(count, INITIAL_CAPACITY)];
+    } else if (regions.length < count * REGION_SIZE) {
+      regions = Arrays.copyOf(regions, Math.max(count * REGION_SIZE, regions.length * 2));
+    }
+  }
+
+  /**
+   * Buffer where the regions left to the child are written. It's reused by the splits done by the task that owns it, so it must
+   * not be shared by threads.
+   */
+  static final class Scratch {
+    private int[] buffer = new int[REGION_SIZE * INITIAL_CAPACITY];
+
+    private int[] takeBuffer(int count) {
+      if (buffer.length < count * REGION_SIZE) {
+        buffer = new int[Math.max(count * REGION_SIZE, buffer.length * 2)];
+      }
+      return buffer;
     }
   }
 
@@ -236,8 +408,8 @@ class FileCandidate {
     r.append("source path: " + sourcePath);
     r.append(", original path: " + originalPath);
 
-    if (regionList != null) {
-      r.append(", regions:").append(regionList);
+    if (regionCount > 0) {
+      r.append(", regions:").append(getRegionList());
     }
     r.append("]");
     return r.toString();
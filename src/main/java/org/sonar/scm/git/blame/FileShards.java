@@ -0,0 +1,84 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Splits the files to blame in shards that are blamed independently. Files of the same top-level directory are kept in the same
+ * shard when possible, since they tend to be modified by the same commits, which are then only traversed by one shard.
+ * Directories that are larger than the average shard are split in groups of consecutive paths.
+ */
+class FileShards {
+  private static final String ROOT = "";
+
+  private FileShards() {
+    // only static methods
+  }
+
+  /**
+   * @return at most {@code shardCount} non-empty shards, with a similar number of files
+   */
+  static List<Set<String>> partition(Collection<String> paths, int shardCount) {
+    if (shardCount <= 1 || paths.size() <= 1) {
+      return paths.isEmpty() ? List.of() : List.of(new HashSet<>(paths));
+    }
+    int maxGroupSize = (paths.size() + shardCount - 1) / shardCount;
+
+    Map<String, List<String>> pathsByDirectory = new TreeMap<>();
+    for (String path : paths) {
+      pathsByDirectory.computeIfAbsent(topLevelDirectory(path), d -> new ArrayList<>()).add(path);
+    }
+
+    List<List<String>> groups = new ArrayList<>();
+    for (List<String> directoryPaths : pathsByDirectory.values()) {
+      directoryPaths.sort(Comparator.naturalOrder());
+      for (int i = 0; i < directoryPaths.size(); i += maxGroupSize) {
+        groups.add(directoryPaths.subList(i, Math.min(i + maxGroupSize, directoryPaths.size())));
+      }
+    }
+
+    // largest groups first, each one in the shard that has the fewest files
+    groups.sort(Comparator.comparingInt(List<String>::size).reversed());
+    PriorityQueue<Set<String>> shards = new PriorityQueue<>(Comparator.comparingInt(Set<String>::size));
+    for (int i = 0; i < Math.min(shardCount, groups.size()); i++) {
+      shards.add(new HashSet<>());
+    }
+    for (List<String> group : groups) {
+      Set<String> shard = shards.poll();
+      shard.addAll(group);
+      shards.add(shard);
+    }
+    return new ArrayList<>(shards);
+  }
+
+  private static String topLevelDirectory(String path) {
+    int slash = path.indexOf('/');
+    return slash < 0 ? ROOT : path.substring(0, slash);
+  }
+}
@@ -22,11 +22,13 @@ package org.sonar.scm.git.blame;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -54,19 +56,59 @@ public class FileTreeComparator {
   private final FilteredRenameDetector filteredRenameDetector;
 
   private TreeWalk treeWalk;
+  // only set for forks, which own their reader
+  private ObjectReader ownedReader = null;
   private TreeFilter filesAndAnyDiffFilter = null;
   private Set<String> filterFilePaths = null;
+  private ChangedPathFilters changedPathFilters = null;
+  private final PathTable.Probe probe = new PathTable.Probe();
+  private PathTable pathTable = new PathTable();
 
   public FileTreeComparator(Repository repository, FilteredRenameDetector filteredRenameDetector) {
     this.repository = repository;
     this.filteredRenameDetector = filteredRenameDetector;
   }
 
+  /**
+   * If set, commits that didn't change any of the files according to their changed-path filter are not compared with their parent.
+   */
+  public void setChangedPathFilters(@Nullable ChangedPathFilters changedPathFilters) {
+    this.changedPathFilters = changedPathFilters;
+  }
+
+  /**
+   * Table of the paths of the blame, shared with the other components, so that the paths of the returned files are the same
+   * instances as the paths of the files being blamed.
+   */
+  void setPathTable(PathTable pathTable) {
+    this.pathTable = pathTable;
+  }
+
   public void initialize(ObjectReader objectReader) {
     treeWalk = new TreeWalk(objectReader);
     treeWalk.setRecursive(true);
   }
 
+  /**
+   * Creates a comparator with its own tree walk, rename detector and object reader, so that it can be used concurrently with this one.
+   * It must be closed with {@link #close()}.
+   */
+  public FileTreeComparator fork(ObjectReader objectReader) {
+    ObjectReader reader = objectReader.newReader();
+    FileTreeComparator fork = new FileTreeComparator(repository, filteredRenameDetector.fork(reader, repository.getConfig().get(DiffConfig.KEY)));
+    fork.setChangedPathFilters(changedPathFilters);
+    fork.setPathTable(pathTable);
+    fork.initialize(reader);
+    fork.ownedReader = reader;
+    return fork;
+  }
+
+  public void close() {
+    if (ownedReader != null) {
+      ownedReader.close();
+    }
+  }
+
   /**
    * Compare the working tree with a commit.
    * Returns all files, since we need to know the objectId of the unmodified files.
@@ -79,11 +121,14 @@ public class FileTreeComparator {
       treeWalk.addTree(new FileTreeIterator(repository));
     }
     treeWalk.setFilter(TreeFilter.ALL);
+    // the other paths of the working tree are skipped without being added to the table
+    filePaths.forEach(pathTable::intern);
 
     while (treeWalk.next()) {
-      if (filePaths.contains(treeWalk.getPathString())) {
+      String path = pathTable.find(treeWalk, probe);
+      if (path != null && filePaths.contains(path)) {
         treeWalk.getObjectId(idBuf, 0);
-        matchedFiles.add(new DiffFile(treeWalk.getPathString(), treeWalk.getPathString(), idBuf.toObjectId()));
+        matchedFiles.add(new DiffFile(path, path, idBuf.toObjectId()));
       }
     }
     return matchedFiles;
@@ -98,6 +143,11 @@ public class FileTreeComparator {
     if (child == null) {
       return computeForWorkingDir(parent, filePathsToInclude);
     }
+    if (changedPathFilters != null && child.getParentCount() == 1 && child.getParent(0).equals(parent)
+      && !changedPathFilters.mayHaveChanged(child, filePathsToInclude)) {
+      // all files have the same path and content in the parent
+      return List.of();
+    }
     if (filePathsToInclude.size() < THRESHOLD_FILTER_FILES) {
       List<DiffFile> modifiedFiles = findMovedFilesForSmallSet(parent, child, filePathsToInclude);
       if (modifiedFiles != null) {
@@ -113,7 +163,7 @@ public class FileTreeComparator {
     return diffEntries.stream()
       .filter(entry -> entry.getChangeType() != DiffEntry.ChangeType.DELETE)
       .filter(entry -> filePathsToInclude.contains(entry.getNewPath()))
-      .map(entry -> new DiffFile(entry.getNewPath(), entry.getOldPath(), entry.getOldId().toObjectId()))
+      .map(entry -> new DiffFile(pathTable.intern(entry.getNewPath()), pathTable.intern(entry.getOldPath()), entry.getOldId().toObjectId()))
       .collect(Collectors.toList());
   }
 
@@ -123,7 +173,8 @@ public class FileTreeComparator {
       // this is expensive to compute
       TreeFilter pathFilterGroup = PathFilterGroup.createFromStrings(filePaths);
       filesAndAnyDiffFilter = AndTreeFilter.create(pathFilterGroup, TreeFilter.ANY_DIFF);
-      filterFilePaths = filePaths;
+      // the paths are copied because the set given by a node is a view of its files, which can be handed over to another node
+      filterFilePaths = new HashSet<>(filePaths);
     }
 
     // With this filter, we'll traverse both trees, only visiting the files that are being blamed and that are different between both trees.
@@ -133,13 +184,14 @@ public class FileTreeComparator {
     List<DiffFile> movedFiles = new ArrayList<>(filePaths.size());
 
     while (treeWalk.next()) {
-      if (filePaths.contains(treeWalk.getPathString())) {
+      String path = pathTable.get(treeWalk, probe);
+      if (filePaths.contains(path)) {
         treeWalk.getObjectId(idBuf, 0);
         if (isAddedOrNotFile()) {
           // We found an added file. Abort
           return null;
         }
-        movedFiles.add(new DiffFile(treeWalk.getPathString(), treeWalk.getPathString(), idBuf.toObjectId()));
+        movedFiles.add(new DiffFile(path, path, idBuf.toObjectId()));
       }
     }
     return movedFiles;
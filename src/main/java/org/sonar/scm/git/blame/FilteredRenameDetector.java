@@ -24,6 +24,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.sonar.scm.git.blame.diff.DiffEntry;
 import org.sonar.scm.git.blame.diff.RenameDetector;
 
@@ -34,6 +36,19 @@ public class FilteredRenameDetector {
     this.renameDetector = renameDetector;
   }
 
+  /**
+   * Creates a detector with the same options, which reads objects with the given reader, so that it can be used concurrently with this one.
+   */
+  public FilteredRenameDetector fork(ObjectReader objectReader, DiffConfig diffConfig) {
+    RenameDetector copy = new RenameDetector(objectReader, diffConfig);
+    copy.setRenameScore(renameDetector.getRenameScore());
+    copy.setBreakScore(renameDetector.getBreakScore());
+    copy.setRenameLimit(renameDetector.getRenameLimit());
+    copy.setBigFileThreshold(renameDetector.getBigFileThreshold());
+    copy.setSkipContentRenamesForBinaryFiles(renameDetector.getSkipContentRenamesForBinaryFiles());
+    return new FilteredRenameDetector(copy);
+  }
+
   /**
    * Based on a given collection of ADD and REMOVE file changes and a set of file paths being blamed, this method
    * computes possible RENAME and COPY entries which have a new path that is part of the files being blamed.
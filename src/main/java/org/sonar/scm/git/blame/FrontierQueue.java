@@ -0,0 +1,179 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.AnyObjectId;
+
+/**
+ * Nodes left to process, ordered by {@link GraphNode#GENERATION_COMPARATOR}. It's a binary heap, with an index of the nodes by
+ * commit so that a node reached from several children is found in constant time and its files merged, instead of being added twice.
+ * The node of the working directory has no commit and isn't indexed.
+ */
+class FrontierQueue implements Iterable<GraphNode> {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final Map<AnyObjectId, GraphNode> nodesByCommit = new HashMap<>();
+  private GraphNode[] heap = new GraphNode[INITIAL_CAPACITY];
+  private int size = 0;
+
+  /**
+   * @return the node of the given commit, if it is in the queue
+   */
+  @CheckForNull
+  GraphNode get(AnyObjectId commit) {
+    return nodesByCommit.get(commit);
+  }
+
+  /**
+   * The node must not be in the queue already. Its generation number can't change while it's in the queue.
+   */
+  void add(GraphNode node) {
+    if (node.getCommit() != null) {
+      nodesByCommit.put(node.getCommit(), node);
+    }
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, size * 2);
+    }
+    siftUp(size, node);
+    size++;
+  }
+
+  /**
+   * @return the next node to process, without removing it
+   */
+  @CheckForNull
+  GraphNode peek() {
+    return size == 0 ? null : heap[0];
+  }
+
+  /**
+   * Removes the next node to process.
+   */
+  @CheckForNull
+  GraphNode poll() {
+    if (size == 0) {
+      return null;
+    }
+    GraphNode first = heap[0];
+    size--;
+    GraphNode last = heap[size];
+    heap[size] = null;
+    if (size > 0) {
+      siftDown(0, last);
+    }
+    if (first.getCommit() != null) {
+      nodesByCommit.remove(first.getCommit());
+    }
+    return first;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    Arrays.fill(heap, 0, size, null);
+    size = 0;
+    nodesByCommit.clear();
+  }
+
+  /**
+   * Iterates over the nodes in the order in which they will be processed. Only the nodes that are iterated over are sorted, so
+   * looking at the next few nodes doesn't depend on the size of the queue. The queue must not be modified during the iteration.
+   */
+  @Override
+  public Iterator<GraphNode> iterator() {
+    return new OrderedIterator();
+  }
+
+  private void siftUp(int index, GraphNode node) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (GraphNode.GENERATION_COMPARATOR.compare(node, heap[parent]) >= 0) {
+        break;
+      }
+      heap[index] = heap[parent];
+      index = parent;
+    }
+    heap[index] = node;
+  }
+
+  private void siftDown(int index, GraphNode node) {
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && GraphNode.GENERATION_COMPARATOR.compare(heap[right], heap[child]) < 0) {
+        child = right;
+      }
+      if (GraphNode.GENERATION_COMPARATOR.compare(node, heap[child]) <= 0) {
+        break;
+      }
+      heap[index] = heap[child];
+      index = child;
+    }
+    heap[index] = node;
+  }
+
+  /**
+   * A node of the heap comes after its parent, so the next node is always among the children of the nodes returned so far.
+   */
+  private class OrderedIterator implements Iterator<GraphNode> {
+    private final PriorityQueue<Integer> candidates = new PriorityQueue<>((a, b) -> GraphNode.GENERATION_COMPARATOR.compare(heap[a], heap[b]));
+
+    private OrderedIterator() {
+      if (size > 0) {
+        candidates.add(0);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !candidates.isEmpty();
+    }
+
+    @Override
+    public GraphNode next() {
+      Integer index = candidates.poll();
+      if (index == null) {
+        throw new NoSuchElementException();
+      }
+      int child = 2 * index + 1;
+      if (child < size) {
+        candidates.add(child);
+      }
+      if (child + 1 < size) {
+        candidates.add(child + 1);
+      }
+      return heap[index];
+    }
+  }
+}
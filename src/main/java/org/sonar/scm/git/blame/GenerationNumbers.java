@@ -0,0 +1,110 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Provides the generation number of commits: the length of the longest path from the commit to a root commit.
+ * A commit always has a higher generation number than its parents, so processing commits by decreasing generation number
+ * ensures that a commit is only processed after all its children.
+ * <p>
+ * Generation numbers are read from the commit-graph files written by git. Commits that are not in these files, because they
+ * were created after the files were written, have their generation number computed by walking their history until commits
+ * that are in the files. Without commit-graph files, generation numbers are only computed if requested, since that requires
+ * parsing the whole history of the start commit.
+ */
+class GenerationNumbers {
+  static final int UNKNOWN = 0;
+
+  private final RevWalk revWalk;
+  private final CommitGraph commitGraph;
+  private final boolean enabled;
+  // generation numbers of the commits that are not in the commit-graph files. They are kept by id, so that the commits released
+  // by the revision walk are not retained, and they are not cleared with them, since computing them again would walk the history again
+  private final Map<ObjectId, Integer> computed = new HashMap<>();
+
+  GenerationNumbers(RevWalk revWalk, CommitGraph commitGraph, boolean computeWithoutCommitGraph) {
+    this.revWalk = revWalk;
+    this.commitGraph = commitGraph;
+    this.enabled = !commitGraph.isEmpty() || computeWithoutCommitGraph;
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the generation number of the commit, or {@link #UNKNOWN} if generation numbers are not enabled
+   */
+  int get(RevCommit commit) throws IOException {
+    if (!enabled) {
+      return UNKNOWN;
+    }
+    int generation = lookup(commit);
+    if (generation != UNKNOWN) {
+      return generation;
+    }
+
+    // walk the history iteratively, since it can be too deep for recursion
+    Deque<RevCommit> stack = new ArrayDeque<>();
+    stack.push(commit);
+    while (!stack.isEmpty()) {
+      RevCommit c = stack.peek();
+      if (lookup(c) != UNKNOWN) {
+        // reached through another path while its parents were being computed
+        stack.pop();
+        continue;
+      }
+      revWalk.parseHeaders(c);
+      int maxParentGeneration = 0;
+      boolean parentsKnown = true;
+      for (RevCommit parent : c.getParents()) {
+        int parentGeneration = lookup(parent);
+        if (parentGeneration == UNKNOWN) {
+          stack.push(parent);
+          parentsKnown = false;
+        } else {
+          maxParentGeneration = Math.max(maxParentGeneration, parentGeneration);
+        }
+      }
+      if (parentsKnown) {
+        stack.pop();
+        computed.put(c.copy(), maxParentGeneration + 1);
+      }
+    }
+    return lookup(commit);
+  }
+
+  private int lookup(RevCommit commit) {
+    Integer generation = computed.get(commit);
+    if (generation != null) {
+      return generation;
+    }
+    return commitGraph.getGeneration(commit);
+  }
+}
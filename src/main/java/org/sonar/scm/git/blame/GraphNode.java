@@ -19,13 +19,16 @@
  */
 package org.sonar.scm.git.blame;
 
-import java.util.ArrayList;
+import java.util.AbstractCollection;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -39,21 +42,59 @@ public abstract class GraphNode {
   public static final Comparator<GraphNode> TIME_COMPARATOR = Comparator
     .comparing(GraphNode::getTime)
     .thenComparing(GraphNode::getCommit, Comparator.nullsFirst(Comparator.naturalOrder())).reversed();
+  /**
+   * Orders nodes by decreasing generation number, so that a commit comes after all its children. Nodes with the same
+   * generation number, or with unknown generation numbers, are ordered by {@link #TIME_COMPARATOR}.
+   */
+  public static final Comparator<GraphNode> GENERATION_COMPARATOR = Comparator
+    .comparingInt(GraphNode::getGeneration).reversed()
+    .thenComparing(TIME_COMPARATOR);
 
   // There can be multiple FileCandidate per path (in this commit) because there can be multiple original paths
   // being blamed that end up matching the same file in this commit.
-  private final Map<String, List<FileCandidate>> filesByPath;
-  // For performance, we keep the full list instead of collecting all files from filesByPath
-  private final List<FileCandidate> allFiles;
+  private Map<String, List<FileCandidate>> filesByPath;
+  private int fileCount;
+  // view of all files in filesByPath, so that the files can be handed over to another node without copying them
+  private final Collection<FileCandidate> allFiles = new AbstractCollection<>() {
+    @Override
+    public Iterator<FileCandidate> iterator() {
+      return new Iterator<>() {
+        private final Iterator<List<FileCandidate>> lists = filesByPath.values().iterator();
+        private Iterator<FileCandidate> files = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!files.hasNext() && lists.hasNext()) {
+            files = lists.next().iterator();
+          }
+          return files.hasNext();
+        }
+
+        @Override
+        public FileCandidate next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return files.next();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return fileCount;
+    }
+  };
+  private int generation = GenerationNumbers.UNKNOWN;
 
   GraphNode(int expectedNumFiles) {
     this.filesByPath = new HashMap<>(expectedNumFiles);
-    this.allFiles = new ArrayList<>(expectedNumFiles);
+    this.fileCount = 0;
   }
 
   GraphNode(List<FileCandidate> files) {
     this.filesByPath = files.stream().collect(Collectors.groupingBy(FileCandidate::getPath));
-    this.allFiles = files;
+    this.fileCount = files.size();
   }
 
   /**
@@ -63,6 +104,19 @@ public abstract class GraphNode {
     return filesByPath.getOrDefault(filePath, List.of());
   }
 
+  /**
+   * Get the file with the given path in this commit, that is blamed for the given original path
+   */
+  @CheckForNull
+  public FileCandidate findFile(String filePath, String originalPath) {
+    for (FileCandidate file : getFilesByPath(filePath)) {
+      if (file.getOriginalPath().equals(originalPath)) {
+        return file;
+      }
+    }
+    return null;
+  }
+
   public Set<String> getAllPaths() {
     return filesByPath.keySet();
   }
@@ -73,7 +127,31 @@ public abstract class GraphNode {
 
   public void addFile(FileCandidate fileCandidate) {
     filesByPath.computeIfAbsent(fileCandidate.getPath(), k -> new LinkedList<>()).add(fileCandidate);
-    allFiles.add(fileCandidate);
+    fileCount++;
+  }
+
+  /**
+   * Moves all files of the child to this node, except the files with the given paths, which stay in the child. The files are
+   * handed over with their index instead of being copied, so it only costs as much as the number of paths kept in the child.
+   * This node must not have any file yet.
+   */
+  void takeFilesFrom(GraphNode child, Set<String> keptPaths) {
+    if (fileCount > 0) {
+      throw new IllegalStateException("Files can only be taken by an empty node");
+    }
+    Map<String, List<FileCandidate>> keptFiles = new HashMap<>();
+    int keptCount = 0;
+    for (String path : keptPaths) {
+      List<FileCandidate> files = child.filesByPath.remove(path);
+      if (files != null) {
+        keptFiles.put(path, files);
+        keptCount += files.size();
+      }
+    }
+    filesByPath = child.filesByPath;
+    fileCount = child.fileCount - keptCount;
+    child.filesByPath = keptFiles;
+    child.fileCount = keptCount;
   }
 
   /**
@@ -88,6 +166,20 @@ public abstract class GraphNode {
 
   public abstract int getTime();
 
+  /**
+   * Length of the longest path from the commit to a root commit, or {@link GenerationNumbers#UNKNOWN}.
+   */
+  public int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Must be set before the node is added to a queue ordered by {@link #GENERATION_COMPARATOR}.
+   */
+  void setGeneration(int generation) {
+    this.generation = generation;
+  }
+
   @Override
   public String toString() {
     StringBuilder r = new StringBuilder();
@@ -22,8 +22,11 @@ package org.sonar.scm.git.blame;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.ObjectId;
@@ -31,6 +34,7 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
 
 import static org.eclipse.jgit.lib.FileMode.TYPE_FILE;
 import static org.eclipse.jgit.lib.FileMode.TYPE_MASK;
@@ -38,14 +42,61 @@ import static org.eclipse.jgit.lib.FileMode.TYPE_MASK;
 public class GraphNodeFactory {
   private final Repository repository;
   private final Set<String> filePathsToBlame;
+  private final BlameCache blameCache;
+  private final BlameResult blameResult;
+  // blobs of the files that were not found in the cache, to add them once they are blamed
+  // concurrent since files are added to the cache by the threads saving the blame
+  private final Map<String, ObjectId> blobsToCache = new ConcurrentHashMap<>();
+  private final PathTable.Probe probe = new PathTable.Probe();
+  private PathTable pathTable = new PathTable();
 
   public GraphNodeFactory(Repository repository, @Nullable Set<String> filePathsToBlame) {
+    this(repository, filePathsToBlame, null, null);
+  }
+
+  /**
+   * @param blameCache  if set, files found in the cache are saved in the blame result and are not part of the created nodes
+   * @param blameResult result where the blame of the files found in the cache is saved. Required if a cache is set.
+   */
+  public GraphNodeFactory(Repository repository, @Nullable Set<String> filePathsToBlame, @Nullable BlameCache blameCache, @Nullable BlameResult blameResult) {
     this.repository = repository;
     this.filePathsToBlame = filePathsToBlame;
+    this.blameCache = blameCache;
+    this.blameResult = blameResult;
+    internPathsToBlame();
+  }
+
+  /**
+   * Table of the paths of the blame, so that the files of the created nodes use the same instances of the paths as the other
+   * components.
+   */
+  void setPathTable(PathTable pathTable) {
+    this.pathTable = pathTable;
+    internPathsToBlame();
+  }
+
+  /**
+   * The paths to blame are added to the table, so that the other paths of the trees can be skipped without being decoded or
+   * added to it.
+   */
+  private void internPathsToBlame() {
+    if (filePathsToBlame != null) {
+      filePathsToBlame.forEach(pathTable::intern);
+    }
+  }
+
+  @CheckForNull
+  private String getPathToBlame(TreeWalk treeWalk) {
+    if (filePathsToBlame == null) {
+      return pathTable.get(treeWalk, probe);
+    }
+    String path = pathTable.find(treeWalk, probe);
+    return path != null && filePathsToBlame.contains(path) ? path : null;
   }
 
   /**
    * Find all files in a given commit, filtered by {@link #filePathsToBlame}, if it's set.
+   * Files that are found in the cache, if there's one, are directly saved in the blame result and are excluded from the node.
    *
    * @return a {link StatefulCommit} for the given commit and the files found.
    */
@@ -57,18 +108,35 @@ public class GraphNodeFactory {
     treeWalk.reset(commit.getTree());
 
     while (treeWalk.next()) {
-      if ((filePathsToBlame != null && !filePathsToBlame.contains(treeWalk.getPathString()))
-        || !isFile(treeWalk.getRawMode(0))) {
+      String path = getPathToBlame(treeWalk);
+      if (path == null || !isFile(treeWalk.getRawMode(0))) {
         continue;
       }
 
       treeWalk.getObjectId(idBuf, 0);
-      files.add(new FileCandidate(treeWalk.getPathString(), treeWalk.getPathString(), idBuf.toObjectId()));
-
+      ObjectId blob = idBuf.toObjectId();
+      if (blameCache != null) {
+        if (blameCache.prefill(path, blob, blameResult)) {
+          continue;
+        }
+        blobsToCache.put(path, blob);
+      }
+      files.add(new FileCandidate(path, path, blob));
     }
     return new CommitGraphNode(commit, files);
   }
 
+  /**
+   * Adds the blame of a file to the cache, if it was created by this factory and it wasn't found in the cache.
+   * The cache is only used when blaming from a commit, since files in the working directory don't have a blob.
+   */
+  void addToCache(FileBlame fileBlame) {
+    ObjectId blob = blobsToCache.remove(fileBlame.getPath());
+    if (blameCache != null && blob != null) {
+      blameCache.put(fileBlame.getPath(), blob, fileBlame);
+    }
+  }
+
   public GraphNode createForWorkingDir(TreeWalk treeWalk, RevCommit parentCommit) throws IOException {
     Objects.requireNonNull(parentCommit);
     List<FileCandidate> files = new ArrayList<>();
@@ -82,13 +150,14 @@ public class GraphNodeFactory {
     }
 
     while (treeWalk.next()) {
-      if (filePathsToBlame != null && !filePathsToBlame.contains(treeWalk.getPathString())) {
+      String path = getPathToBlame(treeWalk);
+      if (path == null) {
         continue;
       }
       if (!isFile(treeWalk.getRawMode(0))) {
         continue;
       }
-      files.add(new FileCandidate(treeWalk.getPathString(), treeWalk.getPathString(), ObjectId.zeroId()));
+      files.add(new FileCandidate(path, path, ObjectId.zeroId()));
 
     }
     return new WorkDirGraphNode(parentCommit, files);
@@ -0,0 +1,105 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Skips the commits that don't modify any of the files being blamed. Starting from a node, it follows the first parent as long as
+ * commits have a single parent and leave all the files untouched, and moves all the files of the node to the first commit that
+ * modifies one of them. Merge commits are never skipped, so that their parents are blamed as usual.
+ * <p>
+ * Commits are checked with their changed-path filters when available, and otherwise with a tree walk limited to the paths of the files.
+ */
+class HistorySimplifier {
+  private final RevWalk revWalk;
+  private final TreeWalk treeWalk;
+  private final ChangedPathFilters changedPathFilters;
+
+  private Set<String> filterPaths = null;
+  private TreeFilter pathsAndAnyDiffFilter = null;
+  private int skippedCommits = 0;
+
+  HistorySimplifier(RevWalk revWalk, @Nullable ChangedPathFilters changedPathFilters) {
+    this.revWalk = revWalk;
+    this.changedPathFilters = changedPathFilters;
+    this.treeWalk = new TreeWalk(revWalk.getObjectReader());
+    this.treeWalk.setRecursive(true);
+  }
+
+  /**
+   * @param stop commits that must not be skipped, even if they don't modify any of the files
+   * @return the given node, or a node for the first ancestor that modifies one of its files
+   */
+  GraphNode skipUnmodifiedCommits(GraphNode node, Predicate<RevCommit> stop) throws IOException {
+    RevCommit commit = node.getCommit();
+    if (commit == null) {
+      return node;
+    }
+    Set<String> paths = node.getAllPaths();
+    RevCommit current = commit;
+
+    while (current.getParentCount() == 1 && !stop.test(current)) {
+      RevCommit parent = current.getParent(0);
+      revWalk.parseHeaders(parent);
+      if (modifiesAnyPath(current, parent, paths)) {
+        break;
+      }
+      skippedCommits++;
+      current = parent;
+    }
+
+    if (current == commit) {
+      return node;
+    }
+    // the files have the same path and content in the ancestor
+    GraphNode ancestor = new CommitGraphNode(current, 0);
+    ancestor.takeFilesFrom(node, Set.of());
+    return ancestor;
+  }
+
+  int getSkippedCommits() {
+    return skippedCommits;
+  }
+
+  private boolean modifiesAnyPath(RevCommit commit, RevCommit parent, Set<String> paths) throws IOException {
+    if (changedPathFilters != null && !changedPathFilters.mayHaveChanged(commit, paths)) {
+      return false;
+    }
+    if (!paths.equals(filterPaths)) {
+      // this is expensive to compute, but the paths only change when a commit modifies one of the files
+      filterPaths = new HashSet<>(paths);
+      pathsAndAnyDiffFilter = AndTreeFilter.create(PathFilterGroup.createFromStrings(filterPaths), TreeFilter.ANY_DIFF);
+    }
+    treeWalk.setFilter(pathsAndAnyDiffFilter);
+    treeWalk.reset(parent.getTree(), commit.getTree());
+    return treeWalk.next();
+  }
+}
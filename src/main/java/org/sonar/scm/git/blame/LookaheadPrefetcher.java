@@ -0,0 +1,318 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonar.scm.git.blame.FileTreeComparator.DiffFile;
+
+/**
+ * Prepares in background threads the work needed to process the upcoming nodes, while the current node is processed.
+ * Commits are compared with their parent and the modified files are diffed, which warms the caches of edit lists and blobs.
+ * <p>
+ * The upcoming nodes are predicted by following the first parent of the current node and of the next nodes in the queue, as long as
+ * commits have a single parent, up to the configured depth. Comparisons are done with a snapshot of the paths of the node they were
+ * predicted from. When a commit is processed, a prefetched comparison is only used if it was done with the same paths or, when some
+ * files were fully blamed in the meantime, if it only contains files modified in place. Otherwise it's discarded and computed again.
+ * <p>
+ * Prefetches run in the executor of the blame, which is shared with the diffs of the nodes being processed, so that the lookahead
+ * doesn't add threads of its own.
+ */
+class LookaheadPrefetcher {
+  private static final Logger LOG = LoggerFactory.getLogger(LookaheadPrefetcher.class);
+  private static final int MAX_PREFETCHES_PER_DEPTH = 4;
+
+  private final int depth;
+  private final FileTreeComparator fileTreeComparator;
+  private final ObjectReader objectReader;
+  private final BiConsumer<FileCandidate, FileCandidate> diff;
+  private final ExecutorService executor;
+  // prefetches that are running, which must end before the comparators and readers are closed
+  private final Object runningLock = new Object();
+  private int runningCount = 0;
+  private boolean closed = false;
+  // only used by the thread processing the nodes, to find the parents of upcoming commits
+  private final RevWalk revWalk;
+  // comparators are not thread safe, so each task borrows one
+  private final Queue<FileTreeComparator> availableComparators = new ConcurrentLinkedQueue<>();
+  private final Queue<FileTreeComparator> allComparators = new ConcurrentLinkedQueue<>();
+  private final ObjectReaderPool readerPool;
+  // in insertion order, so that prefetches of commits that are never processed can be evicted
+  private final Map<ObjectId, Prefetch> prefetches = new LinkedHashMap<>();
+  private final AtomicInteger usedCount = new AtomicInteger();
+  private final AtomicInteger wastedCount = new AtomicInteger();
+
+  /**
+   * @param executor executor of the blame, in which the prefetches run. It's not shut down by {@link #close()}.
+   * @param diff     computes the differences between a file in a parent commit and the same file in a child commit
+   */
+  LookaheadPrefetcher(int depth, FileTreeComparator fileTreeComparator, ObjectReader objectReader, ExecutorService executor,
+    BiConsumer<FileCandidate, FileCandidate> diff) {
+    this(depth, fileTreeComparator, new ObjectReaderPool(objectReader), objectReader, executor, diff);
+  }
+
+  LookaheadPrefetcher(int depth, FileTreeComparator fileTreeComparator, ObjectReaderPool readerPool, ObjectReader objectReader,
+    ExecutorService executor, BiConsumer<FileCandidate, FileCandidate> diff) {
+    this.depth = depth;
+    this.fileTreeComparator = fileTreeComparator;
+    this.objectReader = objectReader;
+    this.readerPool = readerPool;
+    this.diff = diff;
+    this.executor = executor;
+    this.revWalk = new RevWalk(objectReader);
+    this.revWalk.setRetainBody(false);
+  }
+
+  /**
+   * Starts the prefetch of the commits that are likely to be processed next, and that are not prefetched yet.
+   *
+   * @param current  node being processed
+   * @param upcoming nodes in the order in which they will be processed
+   */
+  synchronized void prefetch(GraphNode current, Iterable<GraphNode> upcoming) throws IOException {
+    int remaining = depth;
+    if (current.getParentCount() == 1) {
+      // the current commit is compared with its parent right away, so start with its parent
+      remaining = prefetchFirstParents(current.getParentCommit(0), current, remaining);
+    }
+    for (GraphNode node : upcoming) {
+      if (remaining <= 0 || node.getCommit() == null) {
+        break;
+      }
+      remaining = prefetchFirstParents(node.getCommit(), node, remaining);
+    }
+    evictOldest();
+  }
+
+  /**
+   * Predicted commits may never be processed, for example because all files were blamed before reaching them, or because they were skipped.
+   */
+  private void evictOldest() {
+    Iterator<Prefetch> it = prefetches.values().iterator();
+    while (prefetches.size() > MAX_PREFETCHES_PER_DEPTH * depth && it.hasNext()) {
+      it.next().diffFiles.cancel(false);
+      it.remove();
+      wastedCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Forgets the commits parsed so far to follow the first parents. Prefetches only keep the ids of the commits, so they are not affected.
+   */
+  synchronized void releaseCommits() {
+    revWalk.dispose();
+  }
+
+  private int prefetchFirstParents(RevCommit start, GraphNode node, int remaining) throws IOException {
+    Set<String> paths = null;
+    RevCommit commit = revWalk.parseCommit(start);
+    while (remaining > 0 && commit.getParentCount() == 1) {
+      RevCommit parent = commit.getParent(0);
+      if (!prefetches.containsKey(commit)) {
+        if (paths == null) {
+          paths = new HashSet<>(node.getAllPaths());
+        }
+        ObjectId commitId = commit.copy();
+        ObjectId parentId = parent.copy();
+        Set<String> prefetchPaths = paths;
+        prefetches.put(commitId, new Prefetch(paths, executor.submit(() -> run(commitId, parentId, prefetchPaths))));
+      }
+      remaining--;
+      commit = revWalk.parseCommit(parent);
+    }
+    return remaining;
+  }
+
+  /**
+   * Can be called concurrently for different commits.
+   *
+   * @return the files that were modified by the commit compared to its parent, if it was prefetched with compatible paths.
+   * Otherwise returns null.
+   */
+  @CheckForNull
+  List<DiffFile> get(RevCommit commit, Set<String> paths) {
+    Prefetch prefetch;
+    synchronized (this) {
+      prefetch = prefetches.remove(commit);
+    }
+    if (prefetch == null) {
+      return null;
+    }
+    if (!prefetch.paths.containsAll(paths)) {
+      prefetch.diffFiles.cancel(false);
+      wastedCount.incrementAndGet();
+      return null;
+    }
+    List<DiffFile> diffFiles;
+    try {
+      diffFiles = prefetch.diffFiles.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      // the comparison is done again by the caller, which will report the failure
+      wastedCount.incrementAndGet();
+      return null;
+    }
+    if (prefetch.paths.size() != paths.size()) {
+      diffFiles = filter(diffFiles, paths);
+      if (diffFiles == null) {
+        wastedCount.incrementAndGet();
+        return null;
+      }
+    }
+    usedCount.incrementAndGet();
+    return diffFiles;
+  }
+
+  /**
+   * Added, renamed and copied files depend on the set of paths, because of rename detection. Files modified in place don't.
+   */
+  @CheckForNull
+  private static List<DiffFile> filter(List<DiffFile> diffFiles, Set<String> paths) {
+    List<DiffFile> filtered = new ArrayList<>();
+    for (DiffFile diffFile : diffFiles) {
+      if (paths.contains(diffFile.getNewPath())) {
+        if (!diffFile.getNewPath().equals(diffFile.getOldPath())) {
+          return null;
+        }
+        filtered.add(diffFile);
+      }
+    }
+    return filtered;
+  }
+
+  int getUsedCount() {
+    return usedCount.get();
+  }
+
+  int getWastedCount() {
+    return wastedCount.get();
+  }
+
+  synchronized void close() {
+    wastedCount.addAndGet(prefetches.size());
+    // prefetches that didn't start yet are not needed anymore
+    prefetches.values().forEach(p -> p.diffFiles.cancel(false));
+    prefetches.clear();
+    try {
+      synchronized (runningLock) {
+        closed = true;
+        while (runningCount > 0) {
+          runningLock.wait();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      allComparators.forEach(FileTreeComparator::close);
+      readerPool.close();
+      revWalk.close();
+    }
+    LOG.debug("Lookahead: {} prefetched commits used, {} wasted", usedCount, wastedCount);
+  }
+
+  private List<DiffFile> run(ObjectId commitId, ObjectId parentId, Set<String> paths) throws IOException {
+    synchronized (runningLock) {
+      if (closed) {
+        // the prefetch started while it was being cancelled, and its result is not needed anymore
+        return Collections.emptyList();
+      }
+      runningCount++;
+    }
+    try {
+      return compare(commitId, parentId, paths);
+    } finally {
+      synchronized (runningLock) {
+        runningCount--;
+        runningLock.notifyAll();
+      }
+    }
+  }
+
+  private List<DiffFile> compare(ObjectId commitId, ObjectId parentId, Set<String> paths) throws IOException {
+    FileTreeComparator comparator = borrowComparator();
+    ObjectReader reader = readerPool.borrow();
+    try (RevWalk walk = new RevWalk(reader)) {
+      RevCommit commit = walk.parseCommit(commitId);
+      RevCommit parent = walk.parseCommit(parentId);
+      List<DiffFile> diffFiles = comparator.findMovedFiles(parent, commit, paths);
+
+      for (DiffFile diffFile : diffFiles) {
+        if (diffFile.getOldPath() == null) {
+          continue;
+        }
+        try (TreeWalk treeWalk = TreeWalk.forPath(reader, diffFile.getNewPath(), commit.getTree())) {
+          if (treeWalk != null) {
+            diff.accept(new FileCandidate(diffFile.getNewPath(), diffFile.getOldPath(), diffFile.getOldObjectId()),
+              new FileCandidate(diffFile.getNewPath(), diffFile.getNewPath(), treeWalk.getObjectId(0)));
+          }
+        }
+      }
+      return diffFiles;
+    } finally {
+      readerPool.release(reader);
+      availableComparators.add(comparator);
+    }
+  }
+
+  private FileTreeComparator borrowComparator() {
+    FileTreeComparator comparator = availableComparators.poll();
+    if (comparator == null) {
+      comparator = fileTreeComparator.fork(objectReader);
+      allComparators.add(comparator);
+    }
+    return comparator;
+  }
+
+  private static class Prefetch {
+    private final Set<String> paths;
+    private final Future<List<DiffFile>> diffFiles;
+
+    private Prefetch(Set<String> paths, Future<List<DiffFile>> diffFiles) {
+      this.paths = paths;
+      this.diffFiles = diffFiles;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Readers created from the same reader, each used by a single thread at a time. Readers are borrowed for a task and given back at
+ * its end, so that their inflater and their cache of delta bases are reused by the following tasks, instead of being created for
+ * each task. There are at most as many readers as tasks running at the same time.
+ */
+class ObjectReaderPool implements AutoCloseable {
+  private final ObjectReader source;
+  private final boolean reuseReaders;
+  private final Queue<ObjectReader> readers = new ConcurrentLinkedQueue<>();
+  private final Queue<ObjectReader> availableReaders = new ConcurrentLinkedQueue<>();
+
+  ObjectReaderPool(ObjectReader source) {
+    this(source, true);
+  }
+
+  /**
+   * @param reuseReaders if false, each borrow creates a new reader that is closed when it's released, as if there was no pool.
+   *                     Only used to measure the gain of the pool.
+   */
+  ObjectReaderPool(ObjectReader source, boolean reuseReaders) {
+    this.source = source;
+    this.reuseReaders = reuseReaders;
+  }
+
+  /**
+   * @return a reader that is not used by any other thread until it's {@link #release released}
+   */
+  ObjectReader borrow() {
+    if (!reuseReaders) {
+      return source.newReader();
+    }
+    ObjectReader reader = availableReaders.poll();
+    if (reader == null) {
+      reader = source.newReader();
+      readers.add(reader);
+    }
+    return reader;
+  }
+
+  void release(ObjectReader reader) {
+    if (!reuseReaders) {
+      reader.close();
+      return;
+    }
+    availableReaders.add(reader);
+  }
+
+  int size() {
+    return readers.size();
+  }
+
+  /**
+   * Closes all the readers. They must not be used anymore.
+   */
+  @Override
+  public void close() {
+    readers.forEach(ObjectReader::close);
+    readers.clear();
+    availableReaders.clear();
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.CheckForNull;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Canonical instances of the paths seen during a blame, indexed by their raw UTF-8 bytes. An entry of a tree walk whose path
+ * was already seen is looked up by its raw bytes: the bytes are hashed, but they are not decoded or copied, and all the nodes,
+ * candidates and diffs share the same instance of each path, so that most of their comparisons are identity checks. A path is
+ * only decoded and copied the first time it's seen.
+ * It can be used by several threads at the same time, each with its own {@link Probe}.
+ */
+class PathTable {
+  private final Map<RawPath, String> paths = new ConcurrentHashMap<>();
+
+  /**
+   * @param probe reused for each lookup of the caller, so that entries that were already seen don't allocate anything
+   * @return the path of the current entry of the tree walk, which is added to the table if it's not there yet
+   */
+  String get(TreeWalk treeWalk, Probe probe) {
+    String path = find(treeWalk, probe);
+    if (path != null) {
+      return path;
+    }
+    AbstractTreeIterator tree = currentTree(treeWalk);
+    if (tree == null) {
+      return intern(treeWalk.getPathString());
+    }
+    path = intern(RawParseUtils.decode(UTF_8, tree.getEntryPathBuffer(), 0, tree.getEntryPathLength()));
+    if (!paths.containsKey(probe)) {
+      // the raw path isn't valid UTF-8. The buffer of the tree iterator is reused for the next entries, so it's copied.
+      paths.putIfAbsent(probe.copy(), path);
+    }
+    return path;
+  }
+
+  /**
+   * Looks up the path of the current entry of the tree walk, without adding it to the table.
+   *
+   * @return the path, or null if it's not in the table
+   */
+  @CheckForNull
+  String find(TreeWalk treeWalk, Probe probe) {
+    AbstractTreeIterator tree = currentTree(treeWalk);
+    if (tree == null) {
+      return paths.get(new RawPath(treeWalk.getPathString().getBytes(UTF_8)));
+    }
+    probe.set(tree.getEntryPathBuffer(), tree.getEntryPathLength());
+    return paths.get(probe);
+  }
+
+  /**
+   * @return the canonical instance of the path
+   */
+  String intern(String path) {
+    String existing = paths.putIfAbsent(new RawPath(path.getBytes(UTF_8)), path);
+    return existing != null ? existing : path;
+  }
+
+  int size() {
+    return paths.size();
+  }
+
+  @CheckForNull
+  private static AbstractTreeIterator currentTree(TreeWalk treeWalk) {
+    for (int i = 0; i < treeWalk.getTreeCount(); i++) {
+      AbstractTreeIterator tree = treeWalk.getTree(i, AbstractTreeIterator.class);
+      if (tree != null) {
+        return tree;
+      }
+    }
+    return null;
+  }
+
+  private static class RawPath {
+    private byte[] buffer;
+    private int length;
+    private int hash;
+
+    private RawPath() {
+    }
+
+    private RawPath(byte[] buffer) {
+      set(buffer, buffer.length);
+    }
+
+    final void set(byte[] buffer, int length) {
+      this.buffer = buffer;
+      this.length = length;
+      int h = 1;
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + buffer[i];
+      }
+      this.hash = h;
+    }
+
+    final RawPath copy() {
+      return new RawPath(Arrays.copyOf(buffer, length));
+    }
+
+    @Override
+    public final boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof RawPath)) {
+        return false;
+      }
+      RawPath that = (RawPath) o;
+      return hash == that.hash && Arrays.equals(buffer, 0, length, that.buffer, 0, that.length);
+    }
+
+    @Override
+    public final int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * Mutable key used to look up the entries of a tree walk. It must not be shared between threads.
+   */
+  static final class Probe extends RawPath {
+  }
+}
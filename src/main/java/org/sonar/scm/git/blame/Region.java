@@ -23,9 +23,8 @@ package org.sonar.scm.git.blame;
 /**
  * Region of the result that still needs to be computed.
  * <p>
- * Regions are held in a singly-linked-list by {@link FileCandidate} using the
- * {@link FileCandidate#regionList} field. The list is kept in sorted order by
- * {@link #resultStart}.
+ * {@link FileCandidate} keeps its regions packed in an array. Regions are given to it and read from it as a
+ * singly-linked-list, kept in sorted order by {@link #resultStart}.
  */
 class Region {
   /**
@@ -54,28 +53,6 @@ class Region {
     this.length = length;
   }
 
-  /**
-   * Split the region, assigning a new source position to the first half.
-   *
-   * @param newSource the new source position.
-   * @param newLength    length of the new region.
-   * @return the first half of the region, at the new source.
-   */
-  Region splitFirst(int newSource, int newLength) {
-    return new Region(resultStart, newSource, newLength);
-  }
-
-  /**
-   * Edit this region to remove the first {@code d} elements.
-   *
-   * @param elementsToRemove number of elements to remove from the start of this region.
-   */
-  void slideAndShrink(int elementsToRemove) {
-    resultStart += elementsToRemove;
-    sourceStart += elementsToRemove;
-    length -= elementsToRemove;
-  }
-
   /**
    * {@inheritDoc}
    */
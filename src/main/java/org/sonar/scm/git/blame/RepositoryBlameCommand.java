@@ -20,20 +20,39 @@
 package org.sonar.scm.git.blame;
 
 import java.io.IOException;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.eclipse.jgit.api.GitCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.HistogramDiff;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
 import org.sonar.scm.git.blame.diff.RenameDetector;
 
 /**
@@ -46,8 +65,24 @@ public class RepositoryBlameCommand extends GitCommand<BlameResult> {
   private ObjectId startCommit = null;
   private Set<String> filePaths = null;
   private boolean multithreading = false;
+  private boolean virtualThreads = false;
+  private ExecutorService executor = null;
+  private boolean runLengthEncoding = false;
+  private boolean computeGenerationNumbers = false;
+  private boolean simplifyHistory = false;
+  private int lookaheadDepth = 0;
+  private boolean reuseReaders = true;
+  private int releaseCommitsInterval = 0;
+  private int frontierWidth = 1;
+  private int shardCount = 1;
+  private Duration deadline = null;
   private BiConsumer<Integer, String> progressCallBack;
   private UnaryOperator<String> fileContentProvider = null;
+  private Consumer<FileBlame> resultConsumer = null;
+  private BlameCache blameCache = null;
+  private BlobCache blobCache = null;
+  private ObjectId previousCommit = null;
+  private BlameResult previousResult = null;
 
   public RepositoryBlameCommand(Repository repo) {
     super(repo);
@@ -69,6 +104,39 @@ public class RepositoryBlameCommand extends GitCommand<BlameResult> {
     return this;
   }
 
+  /**
+   * Whether a new virtual thread should be started for each task when multithreading is enabled, instead of using a pool with one
+   * platform thread per processor. Tasks spend much of their time loading blobs, so more of them can run at the same time.
+   * Virtual threads require Java 21: with older versions, the pool of platform threads is used.
+   * The threads coordinating the {@link #setFrontierWidth frontier} and the {@link #setShardCount shards} are virtual too, even if an
+   * {@link #setExecutor executor} is set. Defaults to false.
+   */
+  public RepositoryBlameCommand setVirtualThreads(boolean virtualThreads) {
+    this.virtualThreads = virtualThreads;
+    return this;
+  }
+
+  /**
+   * If set, the executor is used to run the tasks of the blame, instead of creating threads for each blame, so that several blames
+   * running at the same time can share the same threads. It enables multithreading.
+   * The executor is owned by the caller: it's not shut down by the blame.
+   */
+  public RepositoryBlameCommand setExecutor(@Nullable ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * Whether the blame of each file should be stored as runs of contiguous lines blamed to the same commit, instead of one entry per line.
+   * It greatly reduces the memory used by the result when files have few authoring commits. Defaults to false.
+   *
+   * @see BlameResult.FileBlame#getRuns()
+   */
+  public RepositoryBlameCommand setRunLengthEncoding(boolean runLengthEncoding) {
+    this.runLengthEncoding = runLengthEncoding;
+    return this;
+  }
+
   /**
    * @param commit a commit Object ID or null to use HEAD
    */
@@ -95,11 +163,103 @@ public class RepositoryBlameCommand extends GitCommand<BlameResult> {
     return this;
   }
 
+  /**
+   * Whether generation numbers should be computed when the repository doesn't have a commit-graph file (written by
+   * {@code git commit-graph write} or by {@code git gc}). They allow processing each commit only once, after all its children,
+   * but computing them requires parsing the whole history of the start commit. Defaults to false.
+   */
+  public RepositoryBlameCommand setComputeGenerationNumbers(boolean computeGenerationNumbers) {
+    this.computeGenerationNumbers = computeGenerationNumbers;
+    return this;
+  }
+
+  /**
+   * Whether commits that don't modify any of the files left to blame should be skipped, moving the files directly to the next ancestor
+   * that modifies one of them. Merge commits are not skipped. The result is the same, but skipped commits are not reported to the
+   * {@link #setProgressCallBack progress callback}. Defaults to false.
+   */
+  public RepositoryBlameCommand setSimplifyHistory(boolean simplifyHistory) {
+    this.simplifyHistory = simplifyHistory;
+    return this;
+  }
+
+  /**
+   * Number of upcoming commits that are prepared in the tasks of the blame while a commit is processed: they are compared with their
+   * parent, and their modified files are diffed. The differences are then used when the commits are processed.
+   * How much of the prepared work was used is reported by {@link BlameResult#getPrefetchUsedCount()} and
+   * {@link BlameResult#getPrefetchWastedCount()}. It requires {@link #setMultithreading multithreading} or an
+   * {@link #setExecutor executor}. Defaults to 0, which disables it.
+   */
+  public RepositoryBlameCommand setLookaheadDepth(int lookaheadDepth) {
+    this.lookaheadDepth = lookaheadDepth;
+    return this;
+  }
+
+  /**
+   * Whether the object readers used by the tasks are pooled and reused. Only disabled to measure the gain of the pool.
+   * Defaults to true.
+   */
+  RepositoryBlameCommand setReuseReaders(boolean reuseReaders) {
+    this.reuseReaders = reuseReaders;
+    return this;
+  }
+
+  /**
+   * Number of processed commits after which the commits parsed by the traversal are released. Only set by tests, to release
+   * commits in small histories. Defaults to 0, which keeps the interval of {@link BlameGenerator}.
+   */
+  RepositoryBlameCommand setReleaseCommitsInterval(int releaseCommitsInterval) {
+    this.releaseCommitsInterval = releaseCommitsInterval;
+    return this;
+  }
+
+  /**
+   * Maximum number of commits processed at the same time. When several commits at the head of the queue can't be ancestors of
+   * each other because they have the same generation number, they are compared with their parent concurrently. It requires
+   * generation numbers, from a commit-graph file or {@link #setComputeGenerationNumbers computed}. Merge commits are always
+   * processed alone. The threads processing these commits only coordinate: the comparisons and the diffs run in the tasks of the
+   * blame, so they don't add to the load of the processors. Defaults to 1.
+   */
+  public RepositoryBlameCommand setFrontierWidth(int frontierWidth) {
+    this.frontierWidth = frontierWidth;
+    return this;
+  }
+
+  /**
+   * Number of shards in which the files are split. Each shard is blamed in its own thread, traversing the history independently
+   * from the other shards, and the results are merged at the end. Files of the same top-level directory are kept in the same shard
+   * when possible. Commits that modify files of several shards are processed once per shard, but the traversal, including the
+   * comparison of trees and the detection of renames, scales with the number of shards.
+   * When several shards are used, the {@link #setProgressCallBack progress callback} and the {@link #setResultConsumer result consumer}
+   * are called from the threads of the shards, one at a time, and the iteration numbers given to the progress callback are
+   * counted per shard. The thread of each shard traverses the history like the calling thread does without shards, while the
+   * diffs and the saves of the blame run in the tasks of the blame, shared by all the shards. Defaults to 1.
+   */
+  public RepositoryBlameCommand setShardCount(int shardCount) {
+    this.shardCount = shardCount;
+    return this;
+  }
+
+  /**
+   * Maximum duration of the blame, from the start of {@link #call()}. Once it's reached, the blame stops after the commit being
+   * processed, and the result is {@link BlameResult#isPartial() partial}: the lines that were not blamed yet are not
+   * {@link BlameResult.FileBlame#isAssigned assigned}, and the files that are not completely blamed are given to the
+   * {@link #setResultConsumer result consumer} at the end. Such files are not added to the {@link #setBlameCache blame cache}.
+   *
+   * @param deadline maximum duration, or null for no limit, which is the default
+   */
+  public RepositoryBlameCommand setDeadline(@Nullable Duration deadline) {
+    this.deadline = deadline;
+    return this;
+  }
+
   /**
    * Add a callback to check the progress of the algorithm
    * @param progressCallBack Consumer to be called each time a commit is processed by the algorithm.
    * First parameter of the callback is the commit iteration number, second is the commit hash that is starting to be processed.
-   * A commit can be processed multiple time in the algorithm. (Depending on branching and merging)
+   * Commits are processed after all their children when generation numbers are available, either from the commit-graph file
+   * of the repository or because they are {@link #setComputeGenerationNumbers computed}, and each commit is then processed once.
+   * Otherwise, a commit can be processed multiple time in the algorithm. (Depending on branching, merging and commit dates)
    */
   public RepositoryBlameCommand setProgressCallBack(BiConsumer<Integer, String> progressCallBack) {
     this.progressCallBack = progressCallBack;
@@ -116,26 +276,299 @@ public class RepositoryBlameCommand extends GitCommand<BlameResult> {
     return this;
   }
 
+  /**
+   * If set, the blame of each file is given to the consumer as soon as all its lines are blamed, while the rest of the files
+   * are still being processed. Delivered files are not kept in memory and are not part of the {@link BlameResult} returned by {@link #call()}.
+   *
+   * @param resultConsumer Consumer called once for each blamed file. With multithreading, it can be called from any of the threads
+   *                       of the blame, but never from two threads at the same time.
+   */
+  public RepositoryBlameCommand setResultConsumer(@Nullable Consumer<FileBlame> resultConsumer) {
+    this.resultConsumer = resultConsumer;
+    return this;
+  }
+
+  /**
+   * If set, files that have the same path and content as in a previous analysis are blamed from the cache, without traversing
+   * the history. The cache is loaded before the blame and saved after it, with the blame of the files that were not found.
+   * It's only used when a start commit is set, since the content of files in the working directory is not identified by a blob.
+   */
+  public RepositoryBlameCommand setBlameCache(@Nullable BlameCache blameCache) {
+    this.blameCache = blameCache;
+    return this;
+  }
+
+  /**
+   * If set, the contents of blobs are kept in the cache, so that blobs that are diffed several times are only loaded once.
+   * The cache can be shared by several blames, and its counters can be used to size it.
+   */
+  public RepositoryBlameCommand setBlobCache(@Nullable BlobCache blobCache) {
+    this.blobCache = blobCache;
+    return this;
+  }
+
+  /**
+   * Reuses a result computed previously for an older commit. Only the commits between the start commit and the previous commit
+   * are traversed: when the traversal reaches the previous commit, the blame of the remaining lines is copied from the previous result.
+   *
+   * @param previousCommit commit that was used as start commit to compute the previous result
+   * @param previousResult result computed from the previous commit. It must contain all the blamed files, so it can't be
+   *                       a result that was computed with a {@link #setResultConsumer result consumer}. If it's
+   *                       {@link BlameResult#isPartial() partial}, files with lines that it didn't blame are blamed by traversing
+   *                       the history of the previous commit too.
+   */
+  public RepositoryBlameCommand setPreviousResult(@Nullable AnyObjectId previousCommit, @Nullable BlameResult previousResult) {
+    this.previousCommit = previousCommit != null ? previousCommit.toObjectId() : null;
+    this.previousResult = previousResult;
+    return this;
+  }
+
   @Override
   public BlameResult call() throws GitAPIException {
-    BlameResult blameResult = new BlameResult();
-
-    try {
-      BlobReader blobReader = new BlobReader(repo, fileContentProvider);
-      FilteredRenameDetector filteredRenameDetector = new FilteredRenameDetector(new RenameDetector(repo));
-      FileTreeComparator fileTreeComparator = new FileTreeComparator(repo, filteredRenameDetector);
-      FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, diffAlgorithm, textComparator, blobReader, blameResult, multithreading);
+    return call(() -> false);
+  }
 
-      if (filePaths != null && filePaths.isEmpty()) {
-        return blameResult;
+  /**
+   * Runs the blame in a new thread. Cancelling the returned future stops the blame once the commit being processed is done, without
+   * waiting for the rest of the history, and the remaining tasks of the blame are not run.
+   *
+   * @return a future completed with the result of the blame, which is {@link BlameResult#isPartial() partial} if the
+   * {@link #setDeadline deadline} was reached, or completed exceptionally if the blame failed.
+   */
+  public CompletableFuture<BlameResult> callAsync() {
+    CompletableFuture<BlameResult> future = new CompletableFuture<>();
+    Thread thread = new BlameThreadFactory().newThread(() -> {
+      try {
+        future.complete(call(future::isCancelled));
+      } catch (GitAPIException | RuntimeException e) {
+        future.completeExceptionally(e);
       }
+    });
+    thread.start();
+    return future;
+  }
+
+  private BlameResult call(BooleanSupplier cancelled) throws GitAPIException {
+    BlameResult blameResult = new BlameResult(runLengthEncoding, resultConsumer);
+    long startTime = System.nanoTime();
+    BooleanSupplier stopCondition = deadline == null ? cancelled
+      : () -> cancelled.getAsBoolean() || System.nanoTime() - startTime >= deadline.toNanos();
+    if (filePaths != null && filePaths.isEmpty()) {
+      return blameResult;
+    }
 
-      GraphNodeFactory graphNodeFactory = new GraphNodeFactory(repo, filePaths);
-      BlameGenerator blameGenerator = new BlameGenerator(repo, fileBlamer, graphNodeFactory, progressCallBack);
-      blameGenerator.generateBlame(startCommit);
+    if (blameCache != null) {
+      blameCache.setSettings(getBlameSettings());
+      loadCache();
+    }
+    // a single executor is used by all the shards
+    ExecutorService taskExecutor = executor != null ? executor : createExecutor();
+    try {
+      CommitGraph commitGraph = CommitGraph.load(repo);
+      if (shardCount > 1) {
+        blameShards(commitGraph, blameResult, taskExecutor, stopCondition);
+      } else {
+        blame(filePaths, commitGraph, blameResult, progressCallBack, taskExecutor, stopCondition);
+      }
     } catch (IOException e) {
       throw new IllegalStateException("Failed to blame repository files", e);
+    } finally {
+      if (taskExecutor != executor) {
+        taskExecutor.shutdown();
+      }
+    }
+    if (blameCache != null) {
+      saveCache();
+    }
+    if (blobCache != null) {
+      LOG.debug("Blob cache: {} hits, {} misses, {} bytes", blobCache.getHitCount(), blobCache.getMissCount(), blobCache.getSizeInBytes());
     }
     return blameResult;
   }
+
+  private ExecutorService createExecutor() {
+    if (!multithreading) {
+      return SameThreadExecutorService.INSTANCE;
+    }
+    if (virtualThreads) {
+      ExecutorService virtualThreadExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+      if (virtualThreadExecutor != null) {
+        return virtualThreadExecutor;
+      }
+      LOG.debug("Virtual threads are not supported by the JVM, using platform threads");
+    }
+    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new BlameThreadFactory());
+  }
+
+  /**
+   * Threads that wait for the tasks of the blame most of the time. They can't run in the executor of the tasks, which could be
+   * filled with threads waiting for tasks that can't start.
+   */
+  private ThreadFactory newCoordinatorThreadFactory() {
+    if (virtualThreads) {
+      ThreadFactory virtualThreadFactory = VirtualThreads.newThreadFactory();
+      if (virtualThreadFactory != null) {
+        return virtualThreadFactory;
+      }
+    }
+    return new BlameThreadFactory();
+  }
+
+  private void blame(@Nullable Set<String> paths, CommitGraph commitGraph, BlameResult blameResult,
+    @Nullable BiConsumer<Integer, String> progressCallBack, ExecutorService taskExecutor, BooleanSupplier stopCondition)
+    throws IOException, NoHeadException {
+    BlobReader blobReader = new BlobReader(repo, fileContentProvider, blobCache);
+    FilteredRenameDetector filteredRenameDetector = new FilteredRenameDetector(new RenameDetector(repo));
+    FileTreeComparator fileTreeComparator = new FileTreeComparator(repo, filteredRenameDetector);
+    fileTreeComparator.setChangedPathFilters(new ChangedPathFilters(commitGraph));
+    // paths are shared by all the components of the traversal
+    PathTable pathTable = new PathTable();
+    fileTreeComparator.setPathTable(pathTable);
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, diffAlgorithm, textComparator, blobReader, blameResult, taskExecutor);
+    fileBlamer.setLookaheadDepth(lookaheadDepth);
+    fileBlamer.setReuseReaders(reuseReaders);
+    fileBlamer.setFrontierWidth(frontierWidth);
+    fileBlamer.setFrontierThreadFactory(newCoordinatorThreadFactory());
+    fileBlamer.setStopCondition(stopCondition);
+
+    GraphNodeFactory graphNodeFactory = new GraphNodeFactory(repo, paths, blameCache, blameResult);
+    graphNodeFactory.setPathTable(pathTable);
+    if (blameCache != null) {
+      blameResult.setCompletionListener(graphNodeFactory::addToCache);
+    }
+    BlameGenerator blameGenerator = new BlameGenerator(repo, fileBlamer, graphNodeFactory, progressCallBack);
+    blameGenerator.setPreviousResult(previousCommit, previousResult);
+    blameGenerator.setComputeGenerationNumbers(computeGenerationNumbers);
+    blameGenerator.setCommitGraph(commitGraph);
+    blameGenerator.setSimplifyHistory(simplifyHistory);
+    blameGenerator.setFrontierWidth(frontierWidth);
+    blameGenerator.setStopCondition(stopCondition);
+    if (releaseCommitsInterval > 0) {
+      blameGenerator.setReleaseCommitsInterval(releaseCommitsInterval);
+    }
+    blameGenerator.generateBlame(startCommit);
+    blameResult.finish();
+  }
+
+  /**
+   * Blames each shard of files in its own thread, with its own generator, and merges the results. Callbacks are synchronized, so
+   * they are never called concurrently.
+   */
+  private void blameShards(CommitGraph commitGraph, BlameResult blameResult, ExecutorService taskExecutor, BooleanSupplier stopCondition) throws IOException, GitAPIException {
+    List<Set<String>> shards = FileShards.partition(listFilesToBlame(), shardCount);
+    LOG.debug("Blaming files in {} shards", shards.size());
+    Object lock = new Object();
+    Consumer<FileBlame> shardResultConsumer = resultConsumer == null ? null : fileBlame -> {
+      synchronized (lock) {
+        resultConsumer.accept(fileBlame);
+      }
+    };
+    BiConsumer<Integer, String> shardProgressCallBack = progressCallBack == null ? null : (i, commit) -> {
+      synchronized (lock) {
+        progressCallBack.accept(i, commit);
+      }
+    };
+
+    ExecutorService shardExecutor = Executors.newFixedThreadPool(Math.max(1, shards.size()), newCoordinatorThreadFactory());
+    try {
+      List<Future<BlameResult>> futures = new ArrayList<>(shards.size());
+      for (Set<String> shard : shards) {
+        futures.add(shardExecutor.submit(() -> {
+          BlameResult shardResult = new BlameResult(runLengthEncoding, shardResultConsumer);
+          blame(shard, commitGraph, shardResult, shardProgressCallBack, taskExecutor, stopCondition);
+          return shardResult;
+        }));
+      }
+      // wait for all the shards, even if one fails, so that none is still running when this returns
+      ExecutionException failure = null;
+      for (Future<BlameResult> future : futures) {
+        try {
+          blameResult.merge(future.get());
+        } catch (ExecutionException e) {
+          failure = failure == null ? e : failure;
+        }
+      }
+      if (failure != null) {
+        rethrow(failure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } finally {
+      shardExecutor.shutdown();
+    }
+  }
+
+  private static void rethrow(ExecutionException e) throws IOException, GitAPIException {
+    if (e.getCause() instanceof IOException) {
+      throw (IOException) e.getCause();
+    }
+    if (e.getCause() instanceof GitAPIException) {
+      throw (GitAPIException) e.getCause();
+    }
+    throw new IllegalStateException(e.getCause());
+  }
+
+  /**
+   * The files to blame, which are split in shards. Unless they are set explicitly, they are the files of the start commit or
+   * of the working directory, found the same way as when all the files are blamed together.
+   */
+  private Set<String> listFilesToBlame() throws IOException, NoHeadException {
+    if (filePaths != null) {
+      return filePaths;
+    }
+    GraphNodeFactory graphNodeFactory = new GraphNodeFactory(repo, null);
+    try (RevWalk revWalk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(revWalk.getObjectReader())) {
+      GraphNode graphNode;
+      if (startCommit == null) {
+        ObjectId head = repo.resolve(Constants.HEAD);
+        if (head == null) {
+          throw new NoHeadException(MessageFormat.format(JGitText.get().noSuchRefKnown, Constants.HEAD));
+        }
+        graphNode = graphNodeFactory.createForWorkingDir(treeWalk, revWalk.parseCommit(head));
+      } else {
+        graphNode = graphNodeFactory.createForCommit(treeWalk, revWalk.parseCommit(startCommit));
+      }
+      return graphNode.getAllFiles().stream().map(FileCandidate::getPath).collect(Collectors.toSet());
+    }
+  }
+
+  /**
+   * Settings that change the blame of a file, so that cached blames computed with other settings are not used.
+   */
+  private String getBlameSettings() {
+    return diffAlgorithm.getClass().getName() + ' ' + getName(textComparator);
+  }
+
+  private static String getName(RawTextComparator textComparator) {
+    if (textComparator == RawTextComparator.DEFAULT) {
+      return "default";
+    } else if (textComparator == RawTextComparator.WS_IGNORE_ALL) {
+      return "ws-ignore-all";
+    } else if (textComparator == RawTextComparator.WS_IGNORE_LEADING) {
+      return "ws-ignore-leading";
+    } else if (textComparator == RawTextComparator.WS_IGNORE_TRAILING) {
+      return "ws-ignore-trailing";
+    } else if (textComparator == RawTextComparator.WS_IGNORE_CHANGE) {
+      return "ws-ignore-change";
+    }
+    return textComparator.getClass().getName();
+  }
+
+  private void loadCache() {
+    try {
+      blameCache.load();
+    } catch (IOException e) {
+      LOG.warn("Failed to load the blame cache, all files will be blamed", e);
+    }
+  }
+
+  private void saveCache() {
+    LOG.debug("Blame cache: {} hits, {} misses, {} entries", blameCache.getHitCount(), blameCache.getMissCount(), blameCache.getEntryCount());
+    try {
+      blameCache.save();
+    } catch (IOException e) {
+      LOG.warn("Failed to save the blame cache", e);
+    }
+  }
 }
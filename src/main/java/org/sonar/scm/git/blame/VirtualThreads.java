@@ -0,0 +1,68 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.CheckForNull;
+
+/**
+ * Creates executors that start a new virtual thread for each task, and factories of virtual threads. Virtual threads are only
+ * available from Java 21, while the library is compiled for Java 11, so their factory methods are looked up by reflection.
+ */
+class VirtualThreads {
+  private VirtualThreads() {
+    // only static methods
+  }
+
+  /**
+   * @return a new executor, or null if virtual threads are not supported by the running JVM
+   */
+  @CheckForNull
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create an executor of virtual threads", e.getCause());
+    }
+  }
+
+  /**
+   * @return a factory of virtual threads named like the ones of {@link BlameThreadFactory}, or null if virtual threads are not
+   * supported by the running JVM
+   */
+  @CheckForNull
+  static ThreadFactory newThreadFactory() {
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, BlameThreadFactory.NAME_PREFIX, 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+      return null;
+    } catch (InvocationTargetException e) {
+      throw new IllegalStateException("Failed to create a factory of virtual threads", e.getCause());
+    }
+  }
+}
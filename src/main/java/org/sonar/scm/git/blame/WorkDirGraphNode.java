@@ -57,4 +57,10 @@ public class WorkDirGraphNode extends GraphNode {
     // returning max value ensures that this node is processed before any other node.
     return Integer.MAX_VALUE;
   }
+
+  @Override
+  public int getGeneration() {
+    // the working directory is a child of HEAD
+    return Integer.MAX_VALUE;
+  }
 }
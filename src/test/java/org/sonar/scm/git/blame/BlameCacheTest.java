@@ -0,0 +1,156 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlameCacheTest {
+  private final static ObjectId BLOB = ObjectId.fromString("0123456789012345678901234567890123456789");
+  private final static ObjectId COMMIT_1 = ObjectId.fromString("1111111111111111111111111111111111111111");
+  private final static ObjectId COMMIT_2 = ObjectId.fromString("2222222222222222222222222222222222222222");
+  private final static Date DATE = Date.from(Instant.ofEpochSecond(1_600_000_000));
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void prefill_whenFileWasCachedAndSaved_thenBlameIsLoadedFromFile() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache");
+    BlameCache cache = new BlameCache(file, Long.MAX_VALUE);
+    cache.load();
+    cache.put("path", BLOB, createFileBlame("path"));
+    cache.save();
+
+    BlameCache loadedCache = new BlameCache(file, Long.MAX_VALUE);
+    loadedCache.load();
+    BlameResult blameResult = new BlameResult();
+
+    assertThat(loadedCache.prefill("path", BLOB, blameResult)).isTrue();
+    FileBlame fileBlame = blameResult.getFileBlameByPath().get("path");
+    assertThat(fileBlame.getCommitHashes()).containsExactly(COMMIT_1.name(), COMMIT_1.name(), COMMIT_2.name());
+    assertThat(fileBlame.getCommitDates()).containsOnly(DATE);
+    assertThat(fileBlame.getAuthorEmails()).containsExactly("a@email.com", "a@email.com", "b@email.com");
+    assertThat(loadedCache.getHitCount()).isEqualTo(1);
+    assertThat(loadedCache.getMissCount()).isZero();
+  }
+
+  @Test
+  public void prefill_whenBlobIsDifferent_thenItsAMiss() {
+    BlameCache cache = new BlameCache(temp.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+    cache.put("path", BLOB, createFileBlame("path"));
+    BlameResult blameResult = new BlameResult();
+
+    assertThat(cache.prefill("path", COMMIT_1, blameResult)).isFalse();
+    assertThat(cache.prefill("other", BLOB, blameResult)).isFalse();
+    assertThat(blameResult.getFileBlames()).isEmpty();
+    assertThat(cache.getMissCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void put_whenFileHasLinesWithoutCommit_thenItsNotCached() {
+    BlameCache cache = new BlameCache(temp.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 2);
+
+    cache.put("path", BLOB, blameResult.getFileBlameByPath().get("path"));
+
+    assertThat(cache.getEntryCount()).isZero();
+  }
+
+  @Test
+  public void put_whenMaxSizeExceeded_thenEvictLeastRecentlyUsedEntries() {
+    BlameCache cache = new BlameCache(temp.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+    cache.put("path1", BLOB, createFileBlame("path1"));
+    long entrySize = cache.getSizeInBytes();
+
+    BlameCache smallCache = new BlameCache(temp.getRoot().toPath().resolve("cache"), 2 * entrySize);
+    smallCache.put("path1", BLOB, createFileBlame("path1"));
+    smallCache.put("path2", BLOB, createFileBlame("path2"));
+    // access path1, so that path2 becomes the least recently used
+    smallCache.prefill("path1", BLOB, new BlameResult());
+    smallCache.put("path3", BLOB, createFileBlame("path3"));
+
+    assertThat(smallCache.getEntryCount()).isEqualTo(2);
+    assertThat(smallCache.getSizeInBytes()).isLessThanOrEqualTo(2 * entrySize);
+    assertThat(smallCache.prefill("path1", BLOB, new BlameResult())).isTrue();
+    assertThat(smallCache.prefill("path2", BLOB, new BlameResult())).isFalse();
+    assertThat(smallCache.prefill("path3", BLOB, new BlameResult())).isTrue();
+  }
+
+  @Test
+  public void load_whenFileIsNotACache_thenCacheIsEmpty() throws IOException {
+    Path file = temp.newFile().toPath();
+    Files.writeString(file, "not a cache");
+    BlameCache cache = new BlameCache(file, Long.MAX_VALUE);
+
+    cache.load();
+
+    assertThat(cache.getEntryCount()).isZero();
+  }
+
+  @Test
+  public void load_whenFileSavedWithOtherSettings_thenCacheIsEmpty() throws IOException {
+    Path file = temp.getRoot().toPath().resolve("cache");
+    BlameCache cache = new BlameCache(file, Long.MAX_VALUE);
+    cache.setSettings("histogram");
+    cache.put("path", BLOB, createFileBlame("path"));
+    cache.save();
+
+    BlameCache loadedCache = new BlameCache(file, Long.MAX_VALUE);
+    loadedCache.setSettings("myers");
+    loadedCache.load();
+
+    assertThat(loadedCache.getEntryCount()).isZero();
+  }
+
+  @Test
+  public void setSettings_whenSettingsChange_thenEntriesAreDropped() {
+    BlameCache cache = new BlameCache(temp.getRoot().toPath().resolve("cache"), Long.MAX_VALUE);
+    cache.setSettings("histogram");
+    cache.put("path", BLOB, createFileBlame("path"));
+
+    cache.setSettings("histogram");
+    assertThat(cache.getEntryCount()).isEqualTo(1);
+    cache.setSettings("myers");
+    assertThat(cache.getEntryCount()).isZero();
+    assertThat(cache.getSizeInBytes()).isZero();
+  }
+
+  private static FileBlame createFileBlame(String path) {
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize(path, 3);
+    FileCandidate first = new FileCandidate(path, path, BLOB, new Region(0, 0, 2));
+    FileCandidate second = new FileCandidate(path, path, BLOB, new Region(2, 0, 1));
+    blameResult.saveBlameDataForFile(blameResult.addCommit(COMMIT_1, DATE, "a@email.com"), first);
+    blameResult.saveBlameDataForFile(blameResult.addCommit(COMMIT_2, DATE, "b@email.com"), second);
+    return blameResult.getFileBlameByPath().get(path);
+  }
+}
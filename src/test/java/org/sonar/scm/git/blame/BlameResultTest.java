@@ -21,14 +21,24 @@ package org.sonar.scm.git.blame;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
+import org.sonar.scm.git.blame.BlameResult.FileBlame;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.groups.Tuple.tuple;
 
 public class BlameResultTest {
 
   private final static Date ANY_DATE = Date.from(LocalDateTime.now().toInstant(ZoneOffset.UTC));
+  private final static String ANY_HASH = "7a3d1e5c0b8f4e2d9c6a1b3f5e7d9c2b4a6f8e0d";
 
   @Test
   public void saveBlameDataForFile_whenFileCandidateHasOneRegionWithTwoLines_thenFileBlameContainsTwoLines() {
@@ -38,7 +48,7 @@ public class BlameResultTest {
     fileCandidate.setRegionList(new Region(0, 0, 2));
     blameResult.initialize("path", 2);
 
-    blameResult.saveBlameDataForFile("hash", ANY_DATE, "email", fileCandidate);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileCandidate);
 
     assertThat(blameResult.getFileBlames()).hasSize(1);
     assertThat(blameResult.getFileBlameByPath().get("path").lines()).isEqualTo(2);
@@ -54,9 +64,318 @@ public class BlameResultTest {
     fileCandidate.setRegionList(regionHead);
     blameResult.initialize("path", 2);
 
-    blameResult.saveBlameDataForFile("hash", ANY_DATE, "email", fileCandidate);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileCandidate);
 
     assertThat(blameResult.getFileBlames()).hasSize(1);
     assertThat(blameResult.getFileBlameByPath().get("path").lines()).isEqualTo(2);
   }
+
+  @Test
+  public void saveBlameDataForFile_whenSameCommitSavedForSeveralFiles_thenCommitIsStoredOnce() {
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("pathA", 2);
+    blameResult.initialize("pathB", 1);
+
+    FileCandidate fileA = new FileCandidate("pathA", "pathA", null);
+    fileA.setRegionList(new Region(0, 0, 2));
+    FileCandidate fileB = new FileCandidate("pathB", "pathB", null);
+    fileB.setRegionList(new Region(0, 0, 1));
+
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileA);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileB);
+
+    assertThat(blameResult.getCommits()).hasSize(1);
+    assertThat(blameResult.getFileBlameByPath().get("pathA").getCommitIndex(1)).isZero();
+    assertThat(blameResult.getFileBlameByPath().get("pathB").getCommitIndex(0)).isZero();
+  }
+
+  @Test
+  public void findCommit_whenCommitIsAdded_thenReturnItsIndex() {
+    BlameResult blameResult = new BlameResult();
+    ObjectId commitId = ObjectId.fromString(ANY_HASH);
+    assertThat(blameResult.findCommit(commitId)).isEqualTo(BlameResult.NO_COMMIT);
+
+    int index = blameResult.addCommit(commitId, 1000, "email");
+
+    assertThat(blameResult.findCommit(commitId)).isEqualTo(index);
+  }
+
+  @Test
+  public void getters_whenLinesAreBlamed_thenReturnValuesFromCommitDictionary() {
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 3);
+
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null);
+    fileCandidate.setRegionList(new Region(1, 0, 2));
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileCandidate);
+
+    FileBlame fileBlame = blameResult.getFileBlameByPath().get("path");
+    Date dateInSeconds = new Date(ANY_DATE.getTime() / 1000 * 1000);
+    assertThat(fileBlame.getCommitHashes()).containsExactly(null, ANY_HASH, ANY_HASH);
+    assertThat(fileBlame.getCommitDates()).containsExactly(null, dateInSeconds, dateInSeconds);
+    assertThat(fileBlame.getAuthorEmails()).containsExactly(null, "email", "email");
+    assertThat(fileBlame.getCommit(0)).isNull();
+    assertThat(fileBlame.getCommitIndex(0)).isEqualTo(BlameResult.NO_COMMIT);
+  }
+
+  @Test
+  public void saveBlameDataForFile_whenRunLengthEncoding_thenStoreRunsAndLookupLines() {
+    BlameResult blameResult = new BlameResult(true);
+    blameResult.initialize("path", 10);
+
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null);
+    Region regionHead = new Region(0, 0, 4);
+    regionHead.next = new Region(6, 0, 4);
+    fileCandidate.setRegionList(regionHead);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileCandidate);
+
+    FileBlame fileBlame = blameResult.getFileBlameByPath().get("path");
+    assertThat(fileBlame.lines()).isEqualTo(10);
+    assertThat(fileBlame.getCommitIndex(3)).isZero();
+    assertThat(fileBlame.getCommitIndex(4)).isEqualTo(BlameResult.NO_COMMIT);
+    assertThat(fileBlame.getCommitHashes()).containsExactly(ANY_HASH, ANY_HASH, ANY_HASH, ANY_HASH, null, null, ANY_HASH, ANY_HASH, ANY_HASH, ANY_HASH);
+    assertThat(fileBlame.getRuns())
+      .extracting(BlameResult.BlameRun::getStartLine, BlameResult.BlameRun::getLength, BlameResult.BlameRun::getCommitIndex)
+      .containsExactly(tuple(0, 4, 0), tuple(4, 2, BlameResult.NO_COMMIT), tuple(6, 4, 0));
+  }
+
+  @Test
+  public void getRuns_whenPerLineStorage_thenGroupConsecutiveLinesOfSameCommit() {
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 3);
+
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null);
+    fileCandidate.setRegionList(new Region(1, 0, 2));
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", fileCandidate);
+
+    assertThat(blameResult.getFileBlameByPath().get("path").getRuns())
+      .extracting(BlameResult.BlameRun::getStartLine, BlameResult.BlameRun::getLength, BlameResult.BlameRun::getCommitIndex)
+      .containsExactly(tuple(0, 1, BlameResult.NO_COMMIT), tuple(1, 2, 0));
+  }
+
+  @Test
+  public void saveBlameDataForFile_whenResultConsumerSet_thenDeliverFileOnceAllLinesAreBlamed() {
+    List<FileBlame> delivered = new ArrayList<>();
+    BlameResult blameResult = new BlameResult(false, delivered::add);
+    blameResult.initialize("path", 3);
+
+    FileCandidate first = new FileCandidate("path", "path", null);
+    first.setRegionList(new Region(0, 0, 2));
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", first);
+    assertThat(delivered).isEmpty();
+
+    FileCandidate second = new FileCandidate("path", "path", null);
+    second.setRegionList(new Region(2, 0, 1));
+    blameResult.saveBlameDataForFile(null, null, null, second);
+
+    assertThat(delivered).extracting(FileBlame::getPath).containsExactly("path");
+    assertThat(blameResult.getFileBlames()).isEmpty();
+  }
+
+  @Test
+  public void initialize_whenResultConsumerSetAndFileIsEmpty_thenDeliverFileImmediately() {
+    List<FileBlame> delivered = new ArrayList<>();
+    BlameResult blameResult = new BlameResult(false, delivered::add);
+
+    blameResult.initialize("path", 0);
+
+    assertThat(delivered).extracting(FileBlame::lines).containsExactly(0);
+    assertThat(blameResult.getFileBlames()).isEmpty();
+  }
+
+  @Test
+  public void copyBlameData_whenRegionsMatchSource_thenCopyBlameOfSourceLines() {
+    BlameResult previousResult = new BlameResult();
+    previousResult.initialize("path", 2);
+    FileCandidate previousFile = new FileCandidate("path", "path", null, new Region(0, 0, 2));
+    previousResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", previousFile);
+
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 3);
+    // line 0 of the new file is line 1 in the previous file, lines 1 and 2 are new
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null, new Region(0, 1, 1));
+
+    boolean copied = blameResult.copyBlameData(fileCandidate, previousResult.getFileBlameByPath().get("path"));
+
+    assertThat(copied).isTrue();
+    assertThat(fileCandidate.getRegionList()).isNull();
+    assertThat(blameResult.getFileBlameByPath().get("path").getCommitHashes()).containsExactly(ANY_HASH, null, null);
+  }
+
+  @Test
+  public void copyBlameData_whenRegionsExceedSource_thenDontCopy() {
+    BlameResult previousResult = new BlameResult();
+    previousResult.initialize("path", 1);
+
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 2);
+    Region region = new Region(0, 0, 2);
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null, region);
+
+    boolean copied = blameResult.copyBlameData(fileCandidate, previousResult.getFileBlameByPath().get("path"));
+
+    assertThat(copied).isFalse();
+    assertThat(fileCandidate.getRegionCount()).isOne();
+    assertThat(fileCandidate.getResultStart(0)).isZero();
+    assertThat(fileCandidate.getSourceStart(0)).isZero();
+    assertThat(fileCandidate.getLength(0)).isEqualTo(2);
+  }
+
+  @Test
+  public void copyBlameData_whenSourceLinesAreNotAssigned_thenDontCopy() {
+    BlameResult previousResult = new BlameResult();
+    previousResult.initialize("path", 2);
+    previousResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(0, 0, 1)));
+    previousResult.finish();
+
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("path", 2);
+    FileCandidate fileCandidate = new FileCandidate("path", "path", null, new Region(0, 0, 2));
+
+    boolean copied = blameResult.copyBlameData(fileCandidate, previousResult.getFileBlameByPath().get("path"));
+
+    assertThat(copied).isFalse();
+    assertThat(fileCandidate.getRegionCount()).isOne();
+    assertThat(blameResult.getFileBlameByPath().get("path").isAssigned(0)).isFalse();
+  }
+
+  @Test
+  public void merge_shouldAddPrefetchCountsOfOtherResult() {
+    BlameResult blameResult = new BlameResult();
+    blameResult.addPrefetchCounts(3, 1);
+    BlameResult other = new BlameResult();
+    other.addPrefetchCounts(2, 4);
+
+    blameResult.merge(other);
+
+    assertThat(blameResult.getPrefetchUsedCount()).isEqualTo(5);
+    assertThat(blameResult.getPrefetchWastedCount()).isEqualTo(5);
+  }
+
+  @Test
+  public void merge_shouldRemapCommitIndexesOfOtherResult() {
+    String otherHash = "1b3d5f7a9c2e4b6d8f0a1c3e5b7d9f2a4c6e8b0d";
+    BlameResult blameResult = new BlameResult();
+    blameResult.initialize("file1", 1);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("file1", "file1", null, new Region(0, 0, 1)));
+
+    BlameResult other = new BlameResult(true);
+    other.initialize("file2", 3);
+    other.saveBlameDataForFile(otherHash, ANY_DATE, "other", new FileCandidate("file2", "file2", null, new Region(0, 0, 2)));
+    other.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("file2", "file2", null, new Region(2, 0, 1)));
+
+    blameResult.merge(other);
+
+    assertThat(blameResult.getCommits()).extracting(BlameResult.BlameCommit::getHash).containsExactly(ANY_HASH, otherHash);
+    assertThat(blameResult.getFileBlameByPath().get("file1").getCommitHashes()).containsExactly(ANY_HASH);
+    FileBlame merged = blameResult.getFileBlameByPath().get("file2");
+    assertThat(merged.getCommitHashes()).containsExactly(otherHash, otherHash, ANY_HASH);
+    assertThat(merged.getAuthorEmails()).containsExactly("other", "other", "email");
+    assertThat(merged.getCommitIndex(2)).isZero();
+  }
+
+  @Test
+  public void finish_whenFileNotCompletelyBlamed_thenResultIsPartial() {
+    List<FileBlame> delivered = new ArrayList<>();
+    BlameResult blameResult = new BlameResult(false, delivered::add);
+    blameResult.initialize("path", 3);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(0, 0, 1)));
+    blameResult.saveBlameDataForFile(null, null, null, new FileCandidate("path", "path", null, new Region(1, 0, 1)));
+
+    blameResult.finish();
+
+    assertThat(blameResult.isPartial()).isTrue();
+    assertThat(blameResult.getFileBlames()).isEmpty();
+    assertThat(delivered).hasSize(1);
+    FileBlame fileBlame = delivered.get(0);
+    assertThat(fileBlame.isComplete()).isFalse();
+    assertThat(fileBlame.isAssigned(0)).isTrue();
+    assertThat(fileBlame.isAssigned(1)).isTrue();
+    assertThat(fileBlame.isAssigned(2)).isFalse();
+    assertThat(fileBlame.getCommitIndex(1)).isEqualTo(BlameResult.NO_COMMIT);
+    assertThat(fileBlame.getCommitIndex(2)).isEqualTo(BlameResult.NO_COMMIT);
+  }
+
+  @Test
+  public void finish_whenAllFilesCompletelyBlamed_thenResultIsNotPartial() {
+    BlameResult blameResult = new BlameResult(true);
+    blameResult.initialize("path", 1);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(0, 0, 1)));
+
+    blameResult.finish();
+
+    assertThat(blameResult.isPartial()).isFalse();
+    assertThat(blameResult.getFileBlameByPath().get("path").isComplete()).isTrue();
+  }
+
+  @Test
+  public void saveBlameDataForFile_whenRunLengthEncodedFileCompletedOutOfOrder_thenRunsAreSorted() {
+    BlameResult blameResult = new BlameResult(true);
+    blameResult.initialize("path", 4);
+    String otherHash = "1b2c3d4e5f60718293a4b5c6d7e8f90a1b2c3d4e";
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(2, 0, 2)));
+    blameResult.saveBlameDataForFile(otherHash, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(0, 0, 2)));
+
+    FileBlame fileBlame = blameResult.getFileBlameByPath().get("path");
+    assertThat(fileBlame.getCommitHashes()).containsExactly(otherHash, otherHash, ANY_HASH, ANY_HASH);
+    assertThat(fileBlame.getRuns())
+      .extracting(BlameResult.BlameRun::getStartLine, BlameResult.BlameRun::getLength)
+      .containsExactly(tuple(0, 2), tuple(2, 2));
+  }
+
+  @Test
+  public void finish_whenRunLengthEncodedFileIsPartial_thenRunsAreSorted() {
+    BlameResult blameResult = new BlameResult(true);
+    blameResult.initialize("path", 5);
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(3, 0, 2)));
+    blameResult.saveBlameDataForFile(ANY_HASH, ANY_DATE, "email", new FileCandidate("path", "path", null, new Region(0, 0, 1)));
+
+    blameResult.finish();
+
+    FileBlame fileBlame = blameResult.getFileBlameByPath().get("path");
+    assertThat(blameResult.isPartial()).isTrue();
+    assertThat(fileBlame.isAssigned(0)).isTrue();
+    assertThat(fileBlame.isAssigned(1)).isFalse();
+    assertThat(fileBlame.isAssigned(4)).isTrue();
+  }
+
+  @Test
+  public void getRuns_whenLinesNotAssigned_thenRunIsNotAssigned() {
+    BlameResult blameResult = new BlameResult(true);
+    blameResult.initialize("path", 3);
+    blameResult.saveBlameDataForFile(null, null, null, new FileCandidate("path", "path", null, new Region(0, 0, 1)));
+
+    assertThat(blameResult.getFileBlameByPath().get("path").getRuns())
+      .extracting(BlameResult.BlameRun::getStartLine, BlameResult.BlameRun::getCommitIndex, BlameResult.BlameRun::isAssigned)
+      .containsExactly(tuple(0, BlameResult.NO_COMMIT, true), tuple(1, BlameResult.NO_COMMIT, false));
+  }
+
+  @Test
+  public void saveBlameDataForFile_whenLinesSavedByConcurrentThreads_thenFileCompletedOnce() throws InterruptedException {
+    List<FileBlame> delivered = Collections.synchronizedList(new ArrayList<>());
+    BlameResult blameResult = new BlameResult(true, delivered::add);
+    int threads = 8;
+    int linesPerThread = 1000;
+    blameResult.initialize("path", threads * linesPerThread);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      executor.submit(() -> {
+        for (int line = thread * linesPerThread; line < (thread + 1) * linesPerThread; line++) {
+          String hash = String.format("%040x", thread);
+          blameResult.saveBlameDataForFile(hash, ANY_DATE, "email" + thread, new FileCandidate("path", "path", null, new Region(line, 0, 1)));
+        }
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+    assertThat(delivered).hasSize(1);
+    assertThat(blameResult.getCommits()).hasSize(threads);
+    String[] authorEmails = delivered.get(0).getAuthorEmails();
+    for (int line = 0; line < threads * linesPerThread; line++) {
+      assertThat(authorEmails[line]).isEqualTo("email" + (line / linesPerThread));
+    }
+  }
 }
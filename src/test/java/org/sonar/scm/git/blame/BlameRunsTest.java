@@ -0,0 +1,97 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.sonar.scm.git.blame.BlameResult.NO_COMMIT;
+
+public class BlameRunsTest {
+
+  @Test
+  public void add_whenRunsAreContiguousWithSameCommit_thenTheyAreMerged() {
+    BlameRuns runs = new BlameRuns();
+    runs.add(0, 2, 1);
+    runs.add(2, 3, 1);
+    runs.add(5, 1, 2);
+
+    assertThat(runs.size()).isEqualTo(2);
+    assertThat(runs.start(0)).isZero();
+    assertThat(runs.length(0)).isEqualTo(5);
+    assertThat(runs.commitIndex(1)).isEqualTo(2);
+  }
+
+  @Test
+  public void add_whenRunIsEmpty_thenItIsIgnored() {
+    BlameRuns runs = new BlameRuns();
+    runs.add(0, 0, 1);
+
+    assertThat(runs.size()).isZero();
+  }
+
+  @Test
+  public void find_whenRunsAddedOutOfOrder_thenSortAndMergeThem() {
+    BlameRuns runs = new BlameRuns();
+    runs.add(10, 5, 3);
+    runs.add(0, 4, 1);
+    runs.add(6, 4, 3);
+    runs.add(4, 2, 1);
+    runs.sort();
+
+    assertThat(runs.find(0)).isEqualTo(1);
+    assertThat(runs.find(5)).isEqualTo(1);
+    assertThat(runs.find(6)).isEqualTo(3);
+    assertThat(runs.find(14)).isEqualTo(3);
+    assertThat(runs.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void find_whenRunsNotSorted_thenThrowISE() {
+    BlameRuns runs = new BlameRuns();
+    runs.add(4, 2, 1);
+    runs.add(0, 4, 1);
+
+    assertThatThrownBy(() -> runs.find(0)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void find_whenLineNotInAnyRun_thenReturnNoCommit() {
+    BlameRuns runs = new BlameRuns();
+    runs.add(2, 2, 1);
+    runs.add(6, 2, 1);
+
+    assertThat(runs.find(0)).isEqualTo(NO_COMMIT);
+    assertThat(runs.find(4)).isEqualTo(NO_COMMIT);
+    assertThat(runs.find(8)).isEqualTo(NO_COMMIT);
+  }
+
+  @Test
+  public void add_whenManyRuns_thenGrowCapacity() {
+    BlameRuns runs = new BlameRuns();
+    for (int i = 0; i < 100; i++) {
+      runs.add(i, 1, i);
+    }
+
+    assertThat(runs.size()).isEqualTo(100);
+    assertThat(runs.find(99)).isEqualTo(99);
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.nio.charset.StandardCharsets;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlobCacheTest {
+  private static final ObjectId BLOB1 = new ObjectId(1, 1, 1, 1, 1);
+  private static final ObjectId BLOB2 = new ObjectId(2, 2, 2, 2, 2);
+  private static final ObjectId BLOB3 = new ObjectId(3, 3, 3, 3, 3);
+
+  @Test
+  public void get_whenBlobNotCached_shouldCountMiss() {
+    BlobCache cache = new BlobCache(1000);
+
+    assertThat(cache.get(BLOB1)).isNull();
+    assertThat(cache.getMissCount()).isOne();
+    assertThat(cache.getHitCount()).isZero();
+  }
+
+  @Test
+  public void put_shouldAccountContentAndLines() {
+    BlobCache cache = new BlobCache(1000);
+    RawText rawText = rawText("a\nb\n");
+
+    cache.put(BLOB1, rawText);
+
+    assertThat(cache.get(BLOB1)).isSameAs(rawText);
+    assertThat(cache.getHitCount()).isOne();
+    assertThat(cache.getEntryCount()).isOne();
+    // 4 bytes of content and 4 bytes for each of the 2 lines
+    assertThat(cache.getSizeInBytes()).isEqualTo(12);
+  }
+
+  @Test
+  public void put_whenFull_shouldEvictLeastRecentlyUsed() {
+    BlobCache cache = new BlobCache(24);
+    cache.put(BLOB1, rawText("a\nb\n"));
+    cache.put(BLOB2, rawText("c\nd\n"));
+    cache.get(BLOB1);
+
+    cache.put(BLOB3, rawText("e\nf\n"));
+
+    assertThat(cache.getEntryCount()).isEqualTo(2);
+    assertThat(cache.getSizeInBytes()).isEqualTo(24);
+    assertThat(cache.get(BLOB1)).isNotNull();
+    assertThat(cache.get(BLOB2)).isNull();
+    assertThat(cache.get(BLOB3)).isNotNull();
+  }
+
+  @Test
+  public void put_whenBlobLargerThanCache_shouldNotCacheIt() {
+    BlobCache cache = new BlobCache(10);
+
+    cache.put(BLOB1, rawText("a\nb\n"));
+
+    assertThat(cache.getEntryCount()).isZero();
+    assertThat(cache.getSizeInBytes()).isZero();
+  }
+
+  private static RawText rawText(String content) {
+    return new RawText(content.getBytes(StandardCharsets.UTF_8));
+  }
+}
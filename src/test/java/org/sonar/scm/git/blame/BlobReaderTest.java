@@ -32,6 +32,8 @@ import org.junit.rules.TemporaryFolder;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class BlobReaderTest {
@@ -55,4 +57,27 @@ public class BlobReaderTest {
 
     assertThat(rawContent).isEqualTo(new RawText(rawText).getRawContent());
   }
+
+  @Test
+  public void loadText_whenBlobIsCached_shouldLoadItOnlyOnce() throws IOException {
+    byte[] rawText = {51, 10, 52, 10};
+    ObjectId objectId = new ObjectId(1, 2, 3, 4, 5);
+    ObjectLoader objectLoader = mock(ObjectLoader.class);
+
+    when(objectReader.open(objectId, Constants.OBJ_BLOB)).thenReturn(objectLoader);
+    when(objectLoader.getCachedBytes(Integer.MAX_VALUE)).thenReturn(rawText);
+
+    FileCandidate fc = mock(FileCandidate.class);
+    when(fc.getBlob()).thenReturn(objectId);
+
+    BlobCache blobCache = new BlobCache(1000);
+    BlobReader blobReader = new BlobReader(mock(Repository.class), null, blobCache);
+    RawText first = blobReader.loadText(objectReader, fc);
+    RawText second = blobReader.loadText(objectReader, fc);
+
+    assertThat(second).isSameAs(first);
+    verify(objectReader, times(1)).open(objectId, Constants.OBJ_BLOB);
+    assertThat(blobCache.getHitCount()).isOne();
+    assertThat(blobCache.getMissCount()).isOne();
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.sonar.scm.git.blame.ChangedPathFilter.Key;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.sonar.scm.git.blame.ChangedPathFilter.HASH_VERSION_1;
+import static org.sonar.scm.git.blame.ChangedPathFilter.HASH_VERSION_2;
+
+public class ChangedPathFilterTest {
+
+  @Test
+  public void murmur3_shouldMatchReferenceImplementation() {
+    assertThat(ChangedPathFilter.murmur3(0, new byte[0])).isZero();
+    assertThat(ChangedPathFilter.murmur3(0, "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8))).isEqualTo(0x2e4ff723);
+    assertThat(ChangedPathFilter.murmur3(0, new byte[] {(byte) 0x99, (byte) 0xaa, (byte) 0xbb, (byte) 0xcc, (byte) 0xdd, (byte) 0xee, (byte) 0xff}))
+      .isEqualTo(0xa183ccfd);
+  }
+
+  @Test
+  public void keyOf_whenVersion1AndNonAsciiPath_shouldReturnNull() {
+    assertThat(Key.of("dir/fïle", HASH_VERSION_1)).isNull();
+    assertThat(Key.of("dir/fïle", HASH_VERSION_2)).isNotNull();
+    assertThat(Key.of("dir/file", HASH_VERSION_1)).isNotNull();
+  }
+
+  @Test
+  public void mayContain_whenNoBitSet_shouldReturnFalse() {
+    ChangedPathFilter filter = new ChangedPathFilter(ByteBuffer.allocate(8), 0, 8, HASH_VERSION_1, 7);
+
+    assertThat(filter.mayContain(Key.of("dir/file", HASH_VERSION_1))).isFalse();
+  }
+
+  @Test
+  public void mayContain_whenAllBitsSet_shouldReturnTrue() {
+    ByteBuffer buffer = ByteBuffer.wrap(new byte[] {0, -1, -1, 0});
+    ChangedPathFilter filter = new ChangedPathFilter(buffer, 1, 2, HASH_VERSION_1, 7);
+
+    assertThat(filter.mayContain(Key.of("dir/file", HASH_VERSION_1))).isTrue();
+  }
+
+  @Test
+  public void mayContain_whenKeyUnknownOrOfAnotherVersion_shouldReturnTrue() {
+    ChangedPathFilter filter = new ChangedPathFilter(ByteBuffer.allocate(8), 0, 8, HASH_VERSION_1, 7);
+
+    assertThat(filter.mayContain(null)).isTrue();
+    assertThat(filter.mayContain(Key.of("dir/file", HASH_VERSION_2))).isTrue();
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.sonar.scm.git.blame.ChangedPathFilter.HASH_VERSION_1;
+
+public class ChangedPathFiltersTest {
+  private final CommitGraph commitGraph = mock(CommitGraph.class);
+  private final RevCommit commit = mock(RevCommit.class);
+  private final ChangedPathFilters underTest = new ChangedPathFilters(commitGraph);
+
+  @Test
+  public void mayHaveChanged_whenFilterExcludesAllPaths_shouldReturnFalse() {
+    when(commit.getParentCount()).thenReturn(1);
+    when(commitGraph.getChangedPathFilter(commit)).thenReturn(emptyFilter());
+
+    assertThat(underTest.mayHaveChanged(commit, List.of("dir/file1", "dir/file2", "file3"))).isFalse();
+  }
+
+  @Test
+  public void mayHaveChanged_whenFilterMatchesAllPaths_shouldReturnTrue() {
+    when(commit.getParentCount()).thenReturn(1);
+    when(commitGraph.getChangedPathFilter(commit)).thenReturn(new ChangedPathFilter(ByteBuffer.wrap(new byte[] {-1}), 0, 1, HASH_VERSION_1, 7));
+
+    assertThat(underTest.mayHaveChanged(commit, List.of("dir/file1"))).isTrue();
+  }
+
+  @Test
+  public void mayHaveChanged_whenCommitHasNoFilter_shouldReturnTrue() {
+    when(commit.getParentCount()).thenReturn(1);
+
+    assertThat(underTest.mayHaveChanged(commit, List.of("dir/file1"))).isTrue();
+  }
+
+  @Test
+  public void mayHaveChanged_whenMergeCommit_shouldReturnTrue() {
+    when(commit.getParentCount()).thenReturn(2);
+    when(commitGraph.getChangedPathFilter(commit)).thenReturn(emptyFilter());
+
+    assertThat(underTest.mayHaveChanged(commit, List.of("dir/file1"))).isTrue();
+  }
+
+  private static ChangedPathFilter emptyFilter() {
+    return new ChangedPathFilter(ByteBuffer.allocate(8), 0, 8, HASH_VERSION_1, 7);
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CommitGraphFileTest {
+  private static final ObjectId COMMIT1 = ObjectId.fromString("1000000000000000000000000000000000000000");
+  private static final ObjectId COMMIT2 = ObjectId.fromString("1100000000000000000000000000000000000000");
+  private static final ObjectId COMMIT3 = ObjectId.fromString("f000000000000000000000000000000000000000");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void findCommit_shouldReturnPositionInFile() {
+    CommitGraphFile file = new CommitGraphFile(commitGraph(new ObjectId[] {COMMIT1, COMMIT2, COMMIT3}, new int[] {1, 2, 3}));
+
+    assertThat(file.getCommitCount()).isEqualTo(3);
+    assertThat(file.findCommit(COMMIT1)).isZero();
+    assertThat(file.findCommit(COMMIT2)).isOne();
+    assertThat(file.findCommit(COMMIT3)).isEqualTo(2);
+    assertThat(file.findCommit(ObjectId.fromString("1200000000000000000000000000000000000000"))).isEqualTo(CommitGraphFile.NOT_FOUND);
+    assertThat(file.findCommit(ObjectId.zeroId())).isEqualTo(CommitGraphFile.NOT_FOUND);
+  }
+
+  @Test
+  public void getGeneration_shouldIgnoreCommitTimeBits() {
+    CommitGraphFile file = new CommitGraphFile(commitGraph(new ObjectId[] {COMMIT1, COMMIT2}, new int[] {1, 0x3FFFFFFF}));
+
+    assertThat(file.getGeneration(0)).isOne();
+    assertThat(file.getGeneration(1)).isEqualTo(0x3FFFFFFF);
+  }
+
+  @Test
+  public void getChangedPathFilter_whenNoFilterChunks_shouldReturnNull() {
+    CommitGraphFile file = new CommitGraphFile(commitGraph(new ObjectId[] {COMMIT1}, new int[] {1}));
+
+    assertThat(file.hasChangedPathFilters()).isFalse();
+    assertThat(file.getChangedPathFilter(0)).isNull();
+  }
+
+  @Test
+  public void constructor_whenNotCommitGraph_shouldFail() {
+    ByteBuffer buffer = ByteBuffer.allocate(16);
+
+    assertThatThrownBy(() -> new CommitGraphFile(buffer))
+      .isInstanceOf(IllegalStateException.class)
+      .hasMessage("Not a commit-graph file");
+  }
+
+  @Test
+  public void open_whenFileDoesntExist_shouldReturnNull() throws IOException {
+    assertThat(CommitGraphFile.open(temp.getRoot().toPath().resolve("commit-graph"))).isNull();
+  }
+
+  @Test
+  public void open_shouldMapFile() throws IOException {
+    Path path = temp.getRoot().toPath().resolve("commit-graph");
+    Files.write(path, commitGraph(new ObjectId[] {COMMIT1}, new int[] {1}).array());
+
+    CommitGraphFile file = CommitGraphFile.open(path);
+
+    assertThat(file).isNotNull();
+    assertThat(file.findCommit(COMMIT1)).isZero();
+  }
+
+  /**
+   * Writes the chunks OIDF, OIDL and CDAT of a commit-graph. Commits must be sorted.
+   */
+  private static ByteBuffer commitGraph(ObjectId[] commits, int[] generations) {
+    int chunksOffset = 8 + 4 * 12;
+    int fanoutLength = 256 * 4;
+    int lookupLength = commits.length * 20;
+    int dataLength = commits.length * 36;
+    ByteBuffer buffer = ByteBuffer.allocate(chunksOffset + fanoutLength + lookupLength + dataLength + 20);
+
+    buffer.putInt(0x43475048).put((byte) 1).put((byte) 1).put((byte) 3).put((byte) 0);
+    buffer.putInt(0x4f494446).putLong(chunksOffset);
+    buffer.putInt(0x4f49444c).putLong(chunksOffset + fanoutLength);
+    buffer.putInt(0x43444154).putLong(chunksOffset + fanoutLength + lookupLength);
+    buffer.putInt(0).putLong(chunksOffset + fanoutLength + lookupLength + dataLength);
+
+    for (int i = 0; i < 256; i++) {
+      int count = 0;
+      for (ObjectId commit : commits) {
+        if (commit.getFirstByte() <= i) {
+          count++;
+        }
+      }
+      buffer.putInt(count);
+    }
+    byte[] id = new byte[20];
+    for (ObjectId commit : commits) {
+      commit.copyRawTo(id, 0);
+      buffer.put(id);
+    }
+    for (int generation : generations) {
+      // tree id, no parents, generation number with the 2 highest bits of the commit time set, and the commit time
+      buffer.put(new byte[20]).putInt(0x70000000).putInt(0x70000000).putInt((generation << 2) | 3).putInt(1000);
+    }
+    return buffer;
+  }
+}
@@ -20,17 +20,22 @@
 package org.sonar.scm.git.blame;
 
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.sonar.scm.git.blame.CommitGraphNode.GENERATION_COMPARATOR;
 import static org.sonar.scm.git.blame.CommitGraphNode.TIME_COMPARATOR;
 
 public class CommitGraphNodeTest {
@@ -78,6 +83,28 @@ public class CommitGraphNodeTest {
     assertThat(compare).isPositive();
   }
 
+  @Test
+  public void generationComparator_whenChildIsOlderThanParent_thenOrderChildFirst() {
+    CommitGraphNode child = new CommitGraphNode(getRevCommit(1000), 1);
+    child.setGeneration(2);
+    CommitGraphNode parent = new CommitGraphNode(getRevCommit(2000), 1);
+    parent.setGeneration(1);
+
+    int compare = GENERATION_COMPARATOR.compare(child, parent);
+
+    assertThat(compare).isNegative();
+  }
+
+  @Test
+  public void generationComparator_whenSameGeneration_thenOrderThemByTime() {
+    CommitGraphNode earlyCommit = new CommitGraphNode(getRevCommit(1000), 1);
+    CommitGraphNode laterCommit = new CommitGraphNode(getRevCommit(2000), 1);
+
+    int compare = GENERATION_COMPARATOR.compare(earlyCommit, laterCommit);
+
+    assertThat(compare).isPositive();
+  }
+
   @Test
   public void getFilesByPath_whenKeyDoesntExist_thenReturnsEmptyCollection() {
     CommitGraphNode underTest = new CommitGraphNode(getRevCommit(1000), 1);
@@ -107,6 +134,58 @@ public class CommitGraphNodeTest {
     assertThat(underTest.getAllPaths()).hasSize(1);
   }
 
+  @Test
+  public void getAllFiles_shouldIterateOverFilesOfAllPaths() {
+    FileCandidate first = fileCandidate("path");
+    FileCandidate second = fileCandidate("path");
+    FileCandidate other = fileCandidate("other");
+    CommitGraphNode underTest = new CommitGraphNode(getRevCommit(1000), List.of(first, second, other));
+
+    Iterator<FileCandidate> iterator = underTest.getAllFiles().iterator();
+
+    assertThat(iterator).toIterable().containsExactlyInAnyOrder(first, second, other);
+    assertThat(iterator.hasNext()).isFalse();
+    assertThatThrownBy(iterator::next).isInstanceOf(NoSuchElementException.class);
+  }
+
+  @Test
+  public void takeFilesFrom_shouldMoveAllFilesExceptKeptPaths() {
+    FileCandidate unmodified = fileCandidate("unmodified");
+    FileCandidate modified = fileCandidate("modified");
+    CommitGraphNode child = new CommitGraphNode(getRevCommit(1000), List.of(unmodified, modified));
+    CommitGraphNode parent = new CommitGraphNode(getRevCommit(900), 0);
+
+    parent.takeFilesFrom(child, Set.of("modified", "added"));
+
+    assertThat(parent.getAllFiles()).containsOnly(unmodified);
+    assertThat(parent.getFilesByPath("unmodified")).containsOnly(unmodified);
+    assertThat(child.getAllFiles()).containsOnly(modified);
+    assertThat(child.getAllPaths()).containsOnly("modified");
+  }
+
+  @Test
+  public void takeFilesFrom_whenNodeHasFiles_thenThrowsISE() {
+    CommitGraphNode child = new CommitGraphNode(getRevCommit(1000), List.of(fileCandidate("path")));
+    CommitGraphNode parent = new CommitGraphNode(getRevCommit(900), 1);
+    parent.addFile(fileCandidate("other"));
+
+    assertThatThrownBy(() -> parent.takeFilesFrom(child, Set.of()))
+      .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void findFile_whenSeveralOriginalPathsMatchPath_thenReturnsTheOneWithOriginalPath() {
+    FileCandidate file1 = new FileCandidate("original1", "path", null);
+    FileCandidate file2 = new FileCandidate("original2", "path", null);
+    CommitGraphNode underTest = new CommitGraphNode(getRevCommit(1000), 2);
+    underTest.addFile(file1);
+    underTest.addFile(file2);
+
+    assertThat(underTest.findFile("path", "original2")).isSameAs(file2);
+    assertThat(underTest.findFile("path", "original3")).isNull();
+    assertThat(underTest.findFile("original1", "original1")).isNull();
+  }
+
   @Test
   public void toString_whenCommitHasHash_thenPrintPartOfIt() {
     RevCommit revCommit = getRevCommit(1000);
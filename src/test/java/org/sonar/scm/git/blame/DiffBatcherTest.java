@@ -0,0 +1,134 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.List;
+import org.junit.Test;
+import org.sonar.scm.git.blame.DiffBatcher.Batch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+import static org.sonar.scm.git.blame.DiffBatcher.DISPATCH_MEASURE_INTERVAL;
+import static org.sonar.scm.git.blame.DiffBatcher.INITIAL_DISPATCH_NANOS;
+import static org.sonar.scm.git.blame.DiffBatcher.INITIAL_NANOS_PER_BYTE;
+import static org.sonar.scm.git.blame.DiffBatcher.MAX_DISPATCH_NANOS;
+import static org.sonar.scm.git.blame.DiffBatcher.MIN_BATCH_COST_IN_DISPATCHES;
+import static org.sonar.scm.git.blame.DiffBatcher.MIN_DISPATCH_NANOS;
+import static org.sonar.scm.git.blame.DiffBatcher.MIN_NANOS_PER_BYTE;
+import static org.sonar.scm.git.blame.DiffBatcher.UNKNOWN_SIZE;
+
+public class DiffBatcherTest {
+  // size of a diff that costs exactly the minimum cost of a batch, with the initial measures
+  private static final long MIN_BATCH_SIZE = (long) (INITIAL_DISPATCH_NANOS * MIN_BATCH_COST_IN_DISPATCHES / INITIAL_NANOS_PER_BYTE);
+
+  private final DiffBatcher batcher = new DiffBatcher(2);
+
+  @Test
+  public void batch_whenDiffsAreSmall_thenSingleBatch() {
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c"), new long[] {10, 20, 30});
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0).getDiffs()).containsExactly("a", "b", "c");
+    assertThat(batches.get(0).getSize()).isEqualTo(60);
+  }
+
+  @Test
+  public void batch_whenDiffsAreLarge_thenOneBatchPerDiff() {
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c"), new long[] {10 * MIN_BATCH_SIZE, 10 * MIN_BATCH_SIZE, 10 * MIN_BATCH_SIZE});
+
+    assertThat(batches).extracting(Batch::getDiffs).containsExactly(List.of("a"), List.of("b"), List.of("c"));
+  }
+
+  @Test
+  public void batch_shouldGroupSmallDiffsUntilMinimumCost() {
+    long size = MIN_BATCH_SIZE / 2;
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c", "d", "e"), new long[] {size, size, size, size, size});
+
+    assertThat(batches).extracting(Batch::getDiffs).containsExactly(List.of("a", "b"), List.of("c", "d"), List.of("e"));
+    assertThat(batches).extracting(Batch::getSize).containsExactly(2 * size, 2 * size, size);
+  }
+
+  @Test
+  public void batch_whenSizeIsUnknown_thenDiffHasItsOwnBatch() {
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c"), new long[] {10, UNKNOWN_SIZE, 10});
+
+    assertThat(batches).extracting(Batch::getDiffs).containsExactly(List.of("b"), List.of("a", "c"));
+    assertThat(batches).extracting(Batch::getSize).containsExactly(UNKNOWN_SIZE, 20L);
+  }
+
+  @Test
+  public void batch_shouldStartWithLargestDiffs() {
+    long size = MIN_BATCH_SIZE / 2;
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c", "d"), new long[] {size, 10 * MIN_BATCH_SIZE, size, 4 * MIN_BATCH_SIZE});
+
+    assertThat(batches).extracting(Batch::getDiffs).containsExactly(List.of("b"), List.of("d"), List.of("a", "c"));
+  }
+
+  @Test
+  public void batch_whenDispatchIsMeasuredCheaper_thenSmallerBatches() {
+    long size = MIN_BATCH_SIZE / 2;
+    for (int i = 0; i < 100; i++) {
+      batcher.recordDispatch(0);
+    }
+
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c"), new long[] {size, size, size});
+
+    assertThat(batcher.getDispatchNanos()).isEqualTo(MIN_DISPATCH_NANOS);
+    assertThat(batches).hasSize(3);
+  }
+
+  @Test
+  public void recordDispatch_whenSlowOutliers_thenEstimateIsBounded() {
+    for (int i = 0; i < 100; i++) {
+      batcher.recordDispatch(Long.MAX_VALUE / 2);
+    }
+
+    assertThat(batcher.getDispatchNanos()).isEqualTo(MAX_DISPATCH_NANOS);
+  }
+
+  @Test
+  public void batch_whenCommitsRunInline_thenRegularlySplitOneToMeasureDispatch() {
+    for (int i = 1; i < DISPATCH_MEASURE_INTERVAL; i++) {
+      assertThat(batcher.batch(List.of("a", "b", "c"), new long[] {10, 20, 30})).hasSize(1);
+    }
+
+    List<Batch<String>> batches = batcher.batch(List.of("a", "b", "c"), new long[] {10, 20, 30});
+
+    assertThat(batches).extracting(Batch::getDiffs).containsExactly(List.of("c"), List.of("b", "a"));
+  }
+
+  @Test
+  public void recordDiff_shouldConvergeToMeasuredCostPerByte() {
+    for (int i = 0; i < 200; i++) {
+      batcher.recordDiff(1000, 5000);
+    }
+
+    assertThat(batcher.getNanosPerByte()).isCloseTo(5, offset(0.1));
+  }
+
+  @Test
+  public void recordDiff_whenDiffsAreVeryFast_thenEstimateIsBounded() {
+    for (int i = 0; i < 200; i++) {
+      batcher.recordDiff(1000, 0);
+    }
+
+    assertThat(batcher.getNanosPerByte()).isEqualTo(MIN_NANOS_PER_BYTE);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EditListCacheTest {
+  private static final ObjectId BLOB1 = new ObjectId(1, 1, 1, 1, 1);
+  private static final ObjectId BLOB2 = new ObjectId(2, 2, 2, 2, 2);
+
+  private final AtomicInteger diffCount = new AtomicInteger();
+  private final Supplier<EditList> diff = () -> {
+    diffCount.incrementAndGet();
+    EditList editList = new EditList();
+    editList.add(new Edit(0, 1, 0, 2));
+    return editList;
+  };
+
+  @Test
+  public void get_whenSamePairOfBlobs_shouldDiffOnce() {
+    EditListCache cache = new EditListCache();
+
+    EditList first = cache.get(BLOB1, BLOB2, diff);
+    EditList second = cache.get(BLOB1, BLOB2, diff);
+
+    assertThat(second).isSameAs(first);
+    assertThat(diffCount).hasValue(1);
+    assertThat(cache.size()).isOne();
+  }
+
+  @Test
+  public void get_whenPairIsReversed_shouldDiffAgain() {
+    EditListCache cache = new EditListCache();
+
+    cache.get(BLOB1, BLOB2, diff);
+    cache.get(BLOB2, BLOB1, diff);
+
+    assertThat(diffCount).hasValue(2);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_whenBlobIsInWorkingDirectory_shouldNotCache() {
+    EditListCache cache = new EditListCache();
+
+    cache.get(BLOB1, ObjectId.zeroId(), diff);
+    cache.get(BLOB1, ObjectId.zeroId(), diff);
+
+    assertThat(diffCount).hasValue(2);
+    assertThat(cache.size()).isZero();
+  }
+
+  @Test
+  public void get_whenMaxEditsReached_shouldEvictLeastRecentlyUsedDiff() {
+    EditListCache cache = new EditListCache(2);
+    ObjectId blob3 = new ObjectId(3, 3, 3, 3, 3);
+
+    cache.get(BLOB1, BLOB2, diff);
+    cache.get(BLOB2, BLOB1, diff);
+    // makes the first pair the most recently used
+    cache.get(BLOB1, BLOB2, diff);
+    cache.get(BLOB1, blob3, diff);
+
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.getEditCount()).isEqualTo(2);
+    assertThat(diffCount).hasValue(3);
+    cache.get(BLOB1, BLOB2, diff);
+    assertThat(diffCount).hasValue(3);
+    cache.get(BLOB2, BLOB1, diff);
+    assertThat(diffCount).hasValue(4);
+  }
+
+  @Test
+  public void get_whenDiffHasMoreEditsThanMax_shouldNotCacheIt() {
+    EditListCache cache = new EditListCache(0);
+
+    cache.get(BLOB1, BLOB2, diff);
+
+    assertThat(cache.size()).isZero();
+    assertThat(cache.getEditCount()).isZero();
+  }
+}
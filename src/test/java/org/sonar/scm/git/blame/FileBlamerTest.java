@@ -20,24 +20,30 @@
 package org.sonar.scm.git.blame;
 
 import java.io.IOException;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -45,10 +51,14 @@ import static org.sonar.scm.git.blame.FileBlamer.NB_FILES_THRESHOLD_ONE_TREE_WAL
 
 public class FileBlamerTest {
 
-  private final static Date ANY_DATE = Date.from(LocalDateTime.now().toInstant(ZoneOffset.UTC));
-  private final static Date ANOTHER_DATE = Date.from(LocalDateTime.now().minusDays(1).toInstant(ZoneOffset.UTC));
+  private final static int ANY_COMMIT_TIME = 1700000000;
   private final static String ANY_EMAIL = "email@email.com";
   private final static String ANY_COMMIT_NAME = "commit-name";
+  private final static byte[] RAW_COMMIT = Constants.encode("tree " + ObjectId.zeroId().name() + "\n"
+    + "author Author <" + ANY_EMAIL + "> 1600000000 +0000\n"
+    + "committer Committer <another@email.com> " + ANY_COMMIT_TIME + " +0000\n"
+    + "\n"
+    + "message\n");
 
   private final BlameResult blameResult = mock(BlameResult.class);
   private final FileTreeComparator fileTreeComparator = mock(FileTreeComparator.class);
@@ -59,29 +69,101 @@ public class FileBlamerTest {
   @Before
   public void before() {
     when(revCommit.getName()).thenReturn(ANY_COMMIT_NAME);
-
-    PersonIdent personIdent = mock(PersonIdent.class);
-    when(revCommit.getAuthorIdent()).thenReturn(personIdent);
-    when(personIdent.getEmailAddress()).thenReturn(ANY_EMAIL);
-    when(personIdent.getWhen()).thenReturn(ANY_DATE);
-
-    PersonIdent personIdent2 = mock(PersonIdent.class);
-    when(revCommit.getCommitterIdent()).thenReturn(personIdent2);
-    when(personIdent2.getEmailAddress()).thenReturn("another@email.com");
-    when(personIdent2.getWhen()).thenReturn(ANOTHER_DATE);
+    when(revCommit.getCommitTime()).thenReturn(ANY_COMMIT_TIME);
+    when(revCommit.getRawBuffer()).thenReturn(RAW_COMMIT);
+    when(blameResult.findCommit(any())).thenReturn(BlameResult.NO_COMMIT);
   }
 
   @Test
   public void saveBlameDataForFilesInCommit_whenCommitContainsFileCandidate_thenCallBlameResult() {
     FileBlamer fileBlamer = new FileBlamer(null, null, null, null, blameResult, false);
-    when(fileCandidate.getRegionList()).thenReturn(new Region(0, 0, 2));
+    when(blameResult.addCommit(revCommit, ANY_COMMIT_TIME, ANY_EMAIL)).thenReturn(0);
+    when(fileCandidate.hasRegions()).thenReturn(true);
 
     CommitGraphNode statefulCommit = new CommitGraphNode(revCommit, 1);
     statefulCommit.addFile(fileCandidate);
 
     fileBlamer.saveBlameDataForFilesInCommit(statefulCommit);
 
-    verify(blameResult).saveBlameDataForFile(ANY_COMMIT_NAME, ANOTHER_DATE, ANY_EMAIL, fileCandidate);
+    verify(blameResult).addCommit(revCommit, ANY_COMMIT_TIME, ANY_EMAIL);
+    verify(blameResult).saveBlameDataForFile(0, fileCandidate);
+  }
+
+  @Test
+  public void saveBlameDataForFilesInCommit_whenNoFileHasRegions_thenCommitIsNotAdded() {
+    FileBlamer fileBlamer = new FileBlamer(null, null, null, null, blameResult, false);
+    CommitGraphNode statefulCommit = new CommitGraphNode(revCommit, 1);
+    statefulCommit.addFile(fileCandidate);
+
+    fileBlamer.saveBlameDataForFilesInCommit(statefulCommit);
+
+    verify(blameResult, never()).addCommit(any(), anyInt(), any());
+    verify(blameResult, never()).saveBlameDataForFile(anyInt(), any());
+  }
+
+  @Test
+  public void saveBlameDataForFilesInCommit_whenBodyIsNotRetained_thenReadAuthorFromRepository() throws IOException {
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, false);
+    ObjectReader objectReader = mock(ObjectReader.class);
+    when(objectReader.open(revCommit, Constants.OBJ_COMMIT)).thenReturn(new ObjectLoader.SmallObject(Constants.OBJ_COMMIT, RAW_COMMIT));
+    when(revCommit.getRawBuffer()).thenReturn(null);
+    fileBlamer.initialize(objectReader, new CommitGraphNode(revCommit, 1));
+    when(fileCandidate.hasRegions()).thenReturn(true);
+    CommitGraphNode node = new CommitGraphNode(revCommit, 1);
+    node.addFile(fileCandidate);
+
+    fileBlamer.saveBlameDataForFilesInCommit(node);
+
+    verify(blameResult).addCommit(revCommit, ANY_COMMIT_TIME, ANY_EMAIL);
+  }
+
+  @Test
+  public void saveBlameDataForFilesInCommit_whenCommitIsAlreadyInDictionary_thenAuthorIsNotReadAgain() throws IOException {
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, false);
+    ObjectReader objectReader = mock(ObjectReader.class);
+    when(revCommit.getRawBuffer()).thenReturn(null);
+    when(blameResult.findCommit(revCommit)).thenReturn(3);
+    fileBlamer.initialize(objectReader, new CommitGraphNode(revCommit, 1));
+    when(fileCandidate.hasRegions()).thenReturn(true);
+    CommitGraphNode node = new CommitGraphNode(revCommit, 1);
+    node.addFile(fileCandidate);
+
+    fileBlamer.saveBlameDataForFilesInCommit(node);
+
+    verify(objectReader, never()).open(any(), anyInt());
+    verify(blameResult, never()).addCommit(any(), anyInt(), any());
+    verify(blameResult).saveBlameDataForFile(3, fileCandidate);
+  }
+
+  @Test
+  public void saveBlameDataForFilesInCommit_whenNoFileHasRegions_thenAuthorIsNotRead() throws IOException {
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, false);
+    ObjectReader objectReader = mock(ObjectReader.class);
+    when(revCommit.getRawBuffer()).thenReturn(null);
+    fileBlamer.initialize(objectReader, new CommitGraphNode(revCommit, 1));
+    CommitGraphNode node = new CommitGraphNode(revCommit, 1);
+    node.addFile(fileCandidate);
+
+    fileBlamer.saveBlameDataForFilesInCommit(node);
+
+    verify(objectReader, never()).open(any(), anyInt());
+  }
+
+  @Test
+  public void getParallelism_shouldBeBoundedByPoolOfExecutor() {
+    ExecutorService fixedThreadPool = Executors.newFixedThreadPool(1);
+    ExecutorService cachedThreadPool = Executors.newCachedThreadPool();
+    ForkJoinPool forkJoinPool = new ForkJoinPool(1);
+    try {
+      assertThat(FileBlamer.getParallelism(SameThreadExecutorService.INSTANCE)).isOne();
+      assertThat(FileBlamer.getParallelism(fixedThreadPool)).isOne();
+      assertThat(FileBlamer.getParallelism(forkJoinPool)).isOne();
+      assertThat(FileBlamer.getParallelism(cachedThreadPool)).isEqualTo(Runtime.getRuntime().availableProcessors());
+    } finally {
+      fixedThreadPool.shutdown();
+      cachedThreadPool.shutdown();
+      forkJoinPool.shutdown();
+    }
   }
 
   @Test
@@ -154,6 +236,62 @@ public class FileBlamerTest {
     fileBlamer.initialize(objectReader, statefulCommit);
   }
 
+  @Test
+  public void blameParents_thenCompareEachParentWithItsOwnComparator() throws IOException {
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, true);
+    ObjectReader objectReader = mock(ObjectReader.class);
+    FileTreeComparator forkedComparator = mock(FileTreeComparator.class);
+    when(fileTreeComparator.fork(objectReader)).thenReturn(forkedComparator);
+    RevCommit parent1 = mock(RevCommit.class);
+    RevCommit parent2 = mock(RevCommit.class);
+    when(fileTreeComparator.findMovedFiles(any(), any(), anySet())).thenReturn(List.of());
+    when(forkedComparator.findMovedFiles(any(), any(), anySet())).thenReturn(List.of());
+
+    CommitGraphNode statefulCommit = new CommitGraphNode(revCommit, 0);
+    fileBlamer.initialize(objectReader, statefulCommit);
+
+    List<GraphNode> parents = fileBlamer.blameParents(List.of(parent1, parent2), statefulCommit);
+    fileBlamer.close();
+
+    assertThat(parents).extracting(GraphNode::getCommit).containsExactly(parent1, parent2);
+    verify(fileTreeComparator).findMovedFiles(parent1, revCommit, statefulCommit.getAllPaths());
+    verify(forkedComparator).findMovedFiles(parent2, revCommit, statefulCommit.getAllPaths());
+    verify(forkedComparator).close();
+  }
+
+  @Test
+  public void close_whenExecutorIsProvided_thenDontShutItDown() {
+    ExecutorService executor = mock(ExecutorService.class);
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, executor);
+
+    fileBlamer.close();
+
+    verify(executor, never()).shutdown();
+  }
+
+  @Test
+  public void saveBlameDataForFilesInCommit_whenMultithreading_thenSaveDetachedRegionsInBackground() {
+    FileBlamer fileBlamer = new FileBlamer(fileTreeComparator, null, null, fileReader, blameResult, true);
+    when(blameResult.addCommit(revCommit, ANY_COMMIT_TIME, ANY_EMAIL)).thenReturn(0);
+    Region region = new Region(0, 0, 2);
+    FileCandidate file = new FileCandidate("path", "path", ObjectId.zeroId(), region);
+    CommitGraphNode node = new CommitGraphNode(revCommit, 1);
+    node.addFile(file);
+
+    fileBlamer.saveBlameDataForFilesInCommit(node);
+    assertThat(file.getRegionList()).isNull();
+    fileBlamer.waitForSaves();
+    fileBlamer.close();
+
+    ArgumentCaptor<FileCandidate> savedFile = ArgumentCaptor.forClass(FileCandidate.class);
+    verify(blameResult).saveBlameDataForFile(eq(0), savedFile.capture());
+    assertThat(savedFile.getValue().getOriginalPath()).isEqualTo("path");
+    assertThat(savedFile.getValue().getRegionCount()).isOne();
+    assertThat(savedFile.getValue().getResultStart(0)).isZero();
+    assertThat(savedFile.getValue().getSourceStart(0)).isZero();
+    assertThat(savedFile.getValue().getLength(0)).isEqualTo(2);
+  }
+
   private static void addFileCandidates(int numberOfFiles, CommitGraphNode statefulCommit) {
 
     for (int i = 0; i < numberOfFiles; i++) {
@@ -0,0 +1,296 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.annotation.Nullable;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Compares the regions packed in arrays by {@link FileCandidate} with the linked list of {@link Region} objects they replaced,
+ * when the blame of a large file is split through a long history of small edits, with a merge every few commits.
+ * It's not a test: run it with {@code ./gradlew benchmark -Pbenchmark=FileCandidateBenchmark [-Pargs="lines commits iterations"]}.
+ */
+public class FileCandidateBenchmark {
+  private static final int EDITS_PER_COMMIT = 20;
+  private static final int MAX_EDIT_LENGTH = 5;
+  private static final int MERGE_INTERVAL = 10;
+
+  public static void main(String[] args) {
+    int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int commits = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    List<EditList> history = createHistory(lines, commits);
+    // the first runs warm up the JIT
+    long packedChecksum = 0;
+    long linkedChecksum = 0;
+    for (int i = 0; i < iterations; i++) {
+      packedChecksum = splitPacked(lines, history);
+      linkedChecksum = splitLinked(lines, history);
+    }
+    if (packedChecksum != linkedChecksum) {
+      throw new IllegalStateException("Both implementations must blame the same regions");
+    }
+
+    // the implementations are run alternately, so that both are equally affected by the other activity of the machine
+    long[] packedTimes = new long[iterations];
+    long[] linkedTimes = new long[iterations];
+    long packedBytes = 0;
+    long linkedBytes = 0;
+    for (int i = 0; i < iterations; i++) {
+      long[] packed = measure(() -> splitPacked(lines, history));
+      long[] linked = measure(() -> splitLinked(lines, history));
+      packedTimes[i] = packed[0];
+      packedBytes += packed[1];
+      linkedTimes[i] = linked[0];
+      linkedBytes += linked[1];
+    }
+    System.out.printf("%d lines, %d commits, median time and average allocation of %d runs%n", lines, commits, iterations);
+    System.out.printf("packed regions: %d us, %d KB allocated%n", median(packedTimes) / 1000, packedBytes / iterations / 1024);
+    System.out.printf("linked regions: %d us, %d KB allocated%n", median(linkedTimes) / 1000, linkedBytes / iterations / 1024);
+  }
+
+  /**
+   * Each commit replaces a few ranges of lines, so that the number of lines doesn't change and the regions get more and more
+   * fragmented as the history is walked.
+   */
+  private static List<EditList> createHistory(int lines, int commits) {
+    Random random = new Random(0);
+    List<EditList> history = new ArrayList<>();
+    for (int c = 0; c < commits; c++) {
+      EditList edits = new EditList();
+      int step = lines / EDITS_PER_COMMIT;
+      for (int e = 0; e < EDITS_PER_COMMIT; e++) {
+        int begin = e * step + random.nextInt(step - MAX_EDIT_LENGTH);
+        int end = begin + 1 + random.nextInt(MAX_EDIT_LENGTH);
+        edits.add(new Edit(begin, end, begin, end));
+      }
+      history.add(edits);
+    }
+    return history;
+  }
+
+  /**
+   * @return the time in nanoseconds and the number of bytes allocated by the thread, if the JVM measures it
+   */
+  private static long[] measure(Runnable run) {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long startBytes = allocatedBytes(threads);
+    long start = System.nanoTime();
+    run.run();
+    long time = System.nanoTime() - start;
+    return new long[] {time, allocatedBytes(threads) - startBytes};
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private static long allocatedBytes(ThreadMXBean threads) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /**
+   * Regions left to the child after a split are blamed on it, as {@link FileBlamer} does. Every {@link #MERGE_INTERVAL} commits,
+   * the child is split with two parents having the same content, whose regions are then merged.
+   *
+   * @return a checksum of the regions blamed on the commits
+   */
+  private static long splitPacked(int lines, List<EditList> history) {
+    FileCandidate.Scratch scratch = new FileCandidate.Scratch();
+    FileCandidate child = new FileCandidate("file", "file", ObjectId.zeroId(), new Region(0, 0, lines));
+    long checksum = 0;
+    for (int c = 0; c < history.size(); c++) {
+      FileCandidate parent = new FileCandidate("file", "file", ObjectId.zeroId());
+      parent.takeBlame(history.get(c), child, scratch);
+      if (c % MERGE_INTERVAL == 0) {
+        FileCandidate otherParent = new FileCandidate("file", "file", ObjectId.zeroId());
+        otherParent.takeBlame(history.get((c + 1) % history.size()), child, scratch);
+        parent.mergeRegions(otherParent);
+      }
+      for (int r = 0; r < child.getRegionCount(); r++) {
+        checksum = checksum * 31 + child.getResultStart(r) * 7L + child.getLength(r);
+      }
+      child = parent;
+    }
+    return checksum;
+  }
+
+  private static long splitLinked(int lines, List<EditList> history) {
+    LinkedCandidate child = new LinkedCandidate(new Region(0, 0, lines));
+    long checksum = 0;
+    for (int c = 0; c < history.size(); c++) {
+      LinkedCandidate parent = new LinkedCandidate(null);
+      parent.takeBlame(history.get(c), child);
+      if (c % MERGE_INTERVAL == 0) {
+        LinkedCandidate otherParent = new LinkedCandidate(null);
+        otherParent.takeBlame(history.get((c + 1) % history.size()), child);
+        parent.mergeRegions(otherParent);
+      }
+      for (Region r = child.regionList; r != null; r = r.next) {
+        checksum = checksum * 31 + r.resultStart * 7L + r.length;
+      }
+      child = parent;
+    }
+    return checksum;
+  }
+
+  /**
+   * Previous implementation of the splits of {@link FileCandidate}, where each region is an object of a linked list.
+   */
+  private static class LinkedCandidate {
+    private Region regionList;
+
+    private LinkedCandidate(@Nullable Region regionList) {
+      this.regionList = regionList;
+    }
+
+    private void takeBlame(EditList editList, LinkedCandidate b) {
+      LinkedCandidate a = this;
+      Region r = b.clearRegionList();
+      Region aTail = null;
+      Region bTail = null;
+
+      for (int eIdx = 0; eIdx < editList.size(); ) {
+        if (r == null) {
+          return;
+        }
+        Edit e = editList.get(eIdx);
+        if (e.getEndB() <= r.sourceStart) {
+          eIdx++;
+          continue;
+        }
+        if (r.sourceStart < e.getBeginB()) {
+          int d = e.getBeginB() - r.sourceStart;
+          if (r.length <= d) {
+            Region next = r.next;
+            r.sourceStart = e.getBeginA() - d;
+            aTail = add(aTail, a, r);
+            r = next;
+            continue;
+          }
+          aTail = add(aTail, a, new Region(r.resultStart, e.getBeginA() - d, d));
+          r.resultStart += d;
+          r.sourceStart += d;
+          r.length -= d;
+        }
+        if (e.getLengthB() == 0) {
+          eIdx++;
+          continue;
+        }
+        int rEnd = r.sourceStart + r.length;
+        if (rEnd <= e.getEndB()) {
+          Region next = r.next;
+          bTail = add(bTail, b, r);
+          r = next;
+          if (rEnd == e.getEndB()) {
+            eIdx++;
+          }
+          continue;
+        }
+        int len = e.getEndB() - r.sourceStart;
+        bTail = add(bTail, b, new Region(r.resultStart, r.sourceStart, len));
+        r.resultStart += len;
+        r.sourceStart += len;
+        r.length -= len;
+        eIdx++;
+      }
+
+      if (r == null) {
+        return;
+      }
+      Edit e = editList.get(editList.size() - 1);
+      int endB = e.getEndB();
+      int d = endB - e.getEndA();
+      if (aTail == null) {
+        a.regionList = r;
+      } else {
+        aTail.next = r;
+      }
+      do {
+        if (endB <= r.sourceStart) {
+          r.sourceStart -= d;
+        }
+        r = r.next;
+      } while (r != null);
+    }
+
+    private void mergeRegions(LinkedCandidate other) {
+      Region a = clearRegionList();
+      Region b = other.clearRegionList();
+      Region t = null;
+
+      while (a != null && b != null) {
+        if (a.resultStart < b.resultStart) {
+          Region n = a.next;
+          t = add(t, this, a);
+          a = n;
+        } else {
+          Region n = b.next;
+          t = add(t, this, b);
+          b = n;
+        }
+      }
+      if (a != null) {
+        Region n = a.next;
+        t = add(t, this, a);
+        t.next = n;
+      } else if (b != null) {
+        Region n = b.next;
+        t = add(t, this, b);
+        t.next = n;
+      }
+    }
+
+    private static Region add(@Nullable Region tail, LinkedCandidate candidate, Region n) {
+      if (tail == null) {
+        candidate.regionList = n;
+        n.next = null;
+        return n;
+      }
+      if (tail.resultStart + tail.length == n.resultStart && tail.sourceStart + tail.length == n.sourceStart) {
+        tail.length += n.length;
+        return tail;
+      }
+      tail.next = n;
+      n.next = null;
+      return n;
+    }
+
+    private Region clearRegionList() {
+      Region r = regionList;
+      regionList = null;
+      return r;
+    }
+  }
+}
@@ -32,6 +32,8 @@ public class FileCandidateTest {
   private final static String ANY_PATH = "ANY";
   private final static ObjectId ANY_OBJECT_ID = ObjectId.fromRaw(new int[]{1,2,3,4,5});
 
+  private final FileCandidate.Scratch scratch = new FileCandidate.Scratch();
+
   @Test
   public void takeBlame_whenNoRegionLeft_thenDontAssignAnyRegion() {
     FileCandidate child = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID);
@@ -39,7 +41,7 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     editList.add(new Edit(1, 2, 1, 2));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList()).isNull();
     assertThat(parent.getRegionList()).isNull();
@@ -54,9 +56,12 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     editList.add(new Edit(0, 1, 0, 1));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
-    assertThat(child.getRegionList()).isEqualTo(regionLeftToBlame);
+    assertThat(child.getRegionCount()).isOne();
+    assertThat(child.getResultStart(0)).isEqualTo(1);
+    assertThat(child.getSourceStart(0)).isZero();
+    assertThat(child.getLength(0)).isOne();
     assertThat(parent.getRegionList()).isNull();
   }
 
@@ -73,7 +78,7 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     editList.add(new Edit(0, 1, 0, 1));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList().length).isEqualTo(1);
     assertThat(child.getRegionList().resultStart).isZero();
@@ -89,7 +94,7 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     editList.add(new Edit(0, 3, 0, 3));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList().length).isEqualTo(2);
     assertThat(child.getRegionList().resultStart).isZero();
@@ -105,7 +110,7 @@ public class FileCandidateTest {
     EditList editList = new EditList();
     editList.add(new Edit(0, 10, 0, 10));
     editList.add(new Edit(50, 60, 50, 60));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList().resultStart).isZero();
     assertThat(child.getRegionList().length).isEqualTo(10);
@@ -126,7 +131,7 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     IntStream.rangeClosed(0, 10).forEach(i -> editList.add(new Edit(i, i + 1, i, i + 1)));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList()).isNotNull();
     assertThat(child.getRegionList().length).isEqualTo(10);
@@ -141,7 +146,7 @@ public class FileCandidateTest {
 
     EditList editList = new EditList();
     editList.add(new Edit(1, 2, 3, 4));
-    parent.takeBlame(editList, child);
+    parent.takeBlame(editList, child, scratch);
 
     assertThat(child.getRegionList()).isNotNull();
     assertThat(child.getRegionList().length).isEqualTo(1);
@@ -230,4 +235,58 @@ public class FileCandidateTest {
     assertThat(first.getRegionList().next.resultStart).isEqualTo(4);
     assertThat(first.getRegionList().next.length).isEqualTo(4);
   }
+
+  @Test
+  public void takeBlame_whenManyEdits_thenKeepAllRegions() {
+    FileCandidate child = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID);
+    FileCandidate parent = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID);
+    child.setRegionList(new Region(0, 0, 100));
+
+    // every other line is added
+    EditList editList = new EditList();
+    IntStream.range(0, 50).forEach(i -> editList.add(new Edit(i, i, 2 * i, 2 * i + 1)));
+    parent.takeBlame(editList, child, scratch);
+
+    assertThat(child.getRegionCount()).isEqualTo(50);
+    assertThat(parent.getRegionCount()).isEqualTo(50);
+    for (int i = 0; i < 50; i++) {
+      assertThat(child.getResultStart(i)).isEqualTo(2 * i);
+      assertThat(parent.getResultStart(i)).isEqualTo(2 * i + 1);
+      assertThat(parent.getSourceStart(i)).isEqualTo(i);
+      assertThat(parent.getLength(i)).isOne();
+    }
+  }
+
+  @Test
+  public void takeBlame_whenScratchReusedByNextSplit_thenRegionsOfPreviousSplitAreKept() {
+    FileCandidate child = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID, new Region(0, 0, 10));
+    FileCandidate parent = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID);
+    FileCandidate grandParent = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID);
+
+    EditList editList = new EditList();
+    editList.add(new Edit(2, 3, 2, 3));
+    parent.takeBlame(editList, child, scratch);
+    EditList parentEditList = new EditList();
+    parentEditList.add(new Edit(5, 6, 5, 6));
+    grandParent.takeBlame(parentEditList, parent, scratch);
+
+    assertThat(child.getRegionList()).hasToString("2-3");
+    assertThat(parent.getRegionList()).hasToString("5-6");
+    assertThat(grandParent.getRegionList()).hasToString("0-2,3-5,6-10");
+  }
+
+  @Test
+  public void moveRegionsTo_shouldReplaceRegionsOfOtherCandidate() {
+    FileCandidate first = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID, new Region(0, 0, 5));
+    FileCandidate second = new FileCandidate(ANY_PATH, ANY_PATH, ANY_OBJECT_ID, new Region(5, 0, 5));
+
+    first.moveRegionsTo(second);
+
+    assertThat(first.hasRegions()).isFalse();
+    assertThat(first.getRegionList()).isNull();
+    assertThat(second.getRegionCount()).isOne();
+    assertThat(second.getResultStart(0)).isZero();
+    assertThat(second.getSourceStart(0)).isZero();
+    assertThat(second.getLength(0)).isEqualTo(5);
+  }
 }
@@ -0,0 +1,61 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileShardsTest {
+  @Test
+  public void partition_whenSingleShard_shouldReturnAllFiles() {
+    List<Set<String>> shards = FileShards.partition(List.of("a/1", "b/1", "c"), 1);
+
+    assertThat(shards).containsExactly(Set.of("a/1", "b/1", "c"));
+  }
+
+  @Test
+  public void partition_whenNoFiles_shouldReturnNoShard() {
+    assertThat(FileShards.partition(List.of(), 4)).isEmpty();
+  }
+
+  @Test
+  public void partition_shouldKeepFilesOfTopLevelDirectoryTogether() {
+    List<Set<String>> shards = FileShards.partition(List.of("a/1", "a/2", "b/1", "b/2", "c", "d"), 3);
+
+    assertThat(shards).containsExactlyInAnyOrder(Set.of("a/1", "a/2"), Set.of("b/1", "b/2"), Set.of("c", "d"));
+  }
+
+  @Test
+  public void partition_whenDirectoryIsLargerThanShard_shouldSplitIt() {
+    List<Set<String>> shards = FileShards.partition(List.of("a/1", "a/2", "a/3", "a/4", "b/1"), 2);
+
+    assertThat(shards).containsExactlyInAnyOrder(Set.of("a/1", "a/2", "a/3"), Set.of("a/4", "b/1"));
+  }
+
+  @Test
+  public void partition_whenFewerFilesThanShards_shouldNotCreateEmptyShards() {
+    List<Set<String>> shards = FileShards.partition(List.of("a/1", "b/1"), 4);
+
+    assertThat(shards).containsExactlyInAnyOrder(Set.of("a/1"), Set.of("b/1"));
+  }
+}
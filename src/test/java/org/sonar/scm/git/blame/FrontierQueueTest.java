@@ -0,0 +1,105 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class FrontierQueueTest {
+  private final RevWalk revWalk = new RevWalk(mock(ObjectReader.class));
+  private final FrontierQueue queue = new FrontierQueue();
+
+  @Test
+  public void poll_shouldReturnNodesByDecreasingGeneration() {
+    for (int generation : new int[] {3, 7, 1, 5, 2, 6, 4}) {
+      queue.add(node(generation));
+    }
+
+    List<Integer> generations = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      generations.add(queue.poll().getGeneration());
+    }
+
+    assertThat(generations).containsExactly(7, 6, 5, 4, 3, 2, 1);
+    assertThat(queue.poll()).isNull();
+  }
+
+  @Test
+  public void iterator_shouldReturnNodesInProcessingOrderWithoutRemovingThem() {
+    for (int generation : new int[] {3, 7, 1, 5, 2, 6, 4}) {
+      queue.add(node(generation));
+    }
+
+    List<Integer> generations = new ArrayList<>();
+    queue.forEach(n -> generations.add(n.getGeneration()));
+
+    assertThat(generations).containsExactly(7, 6, 5, 4, 3, 2, 1);
+    assertThat(queue.size()).isEqualTo(7);
+    assertThat(queue.peek().getGeneration()).isEqualTo(7);
+  }
+
+  @Test
+  public void get_whenNodeOfCommitQueued_thenReturnsIt() {
+    CommitGraphNode node = node(1);
+    queue.add(node);
+
+    assertThat(queue.get(node.getCommit())).isSameAs(node);
+    assertThat(queue.get(commit(2))).isNull();
+  }
+
+  @Test
+  public void get_whenNodePolled_thenReturnsNull() {
+    CommitGraphNode node = node(1);
+    queue.add(node);
+    queue.poll();
+
+    assertThat(queue.get(node.getCommit())).isNull();
+  }
+
+  @Test
+  public void clear_shouldRemoveAllNodes() {
+    CommitGraphNode node = node(1);
+    queue.add(node);
+    queue.add(node(2));
+    queue.clear();
+
+    assertThat(queue.isEmpty()).isTrue();
+    assertThat(queue.iterator().hasNext()).isFalse();
+    assertThat(queue.get(node.getCommit())).isNull();
+  }
+
+  private CommitGraphNode node(int generation) {
+    CommitGraphNode node = new CommitGraphNode(commit(generation), 1);
+    node.setGeneration(generation);
+    return node;
+  }
+
+  private RevCommit commit(int n) {
+    return revWalk.lookupCommit(ObjectId.fromString(String.format("%040x", n)));
+  }
+}
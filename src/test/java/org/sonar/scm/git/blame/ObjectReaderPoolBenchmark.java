@@ -0,0 +1,124 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.PersonIdent;
+
+import static org.sonar.scm.git.GitUtils.createFile;
+import static org.sonar.scm.git.GitUtils.createRepository;
+
+/**
+ * Compares the time to blame a packed repository with and without {@link ObjectReaderPool}. Readers created for each task start
+ * with an empty cache of delta bases and a new inflater, which is what the pool avoids.
+ * It's not a test: run it with {@code ./gradlew benchmark -Pbenchmark=ObjectReaderPoolBenchmark [-Pargs="commits files iterations"]}.
+ */
+public class ObjectReaderPoolBenchmark {
+  private static final int LINES_PER_FILE = 200;
+
+  public static void main(String[] args) throws IOException, GitAPIException {
+    int commits = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+    int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Path worktree = Files.createTempDirectory("blame-benchmark");
+    try (Git git = createPackedRepository(worktree, commits, files)) {
+      // the first runs warm up the JIT and the file system cache
+      blame(git, true);
+      blame(git, false);
+
+      long[] pooled = new long[iterations];
+      long[] notPooled = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        pooled[i] = blame(git, true);
+        notPooled[i] = blame(git, false);
+      }
+      System.out.printf("%d commits, %d files, median of %d runs%n", commits, files, iterations);
+      System.out.printf("with pool:    %d ms%n", median(pooled));
+      System.out.printf("without pool: %d ms%n", median(notPooled));
+    } finally {
+      deleteRecursively(worktree);
+    }
+  }
+
+  /**
+   * Each commit modifies a few lines in some of the files, so that the blobs are stored as chains of deltas once packed.
+   */
+  private static Git createPackedRepository(Path worktree, int commits, int files) throws IOException, GitAPIException {
+    Git git = createRepository(worktree);
+    Random random = new Random(0);
+    List<List<String>> contents = new ArrayList<>();
+    for (int f = 0; f < files; f++) {
+      int file = f;
+      contents.add(IntStream.range(0, LINES_PER_FILE).mapToObj(l -> "line " + l + " of file " + file).collect(Collectors.toCollection(ArrayList::new)));
+    }
+    PersonIdent author = new PersonIdent("author", "author@example.com");
+    for (int c = 0; c < commits; c++) {
+      for (int f = 0; f < files; f++) {
+        if (c == 0 || random.nextInt(10) == 0) {
+          List<String> lines = contents.get(f);
+          lines.set(random.nextInt(LINES_PER_FILE), "line modified by commit " + c);
+          createFile(worktree, "dir" + (f % 10) + "/file" + f, lines.toArray(new String[0]));
+        }
+      }
+      git.add().addFilepattern(".").call();
+      git.commit().setAuthor(author).setCommitter(author).setMessage("commit " + c).call();
+    }
+    // bitmaps only speed up the enumeration of reachable objects, which the blame doesn't do
+    git.getRepository().getConfig().setBoolean(ConfigConstants.CONFIG_PACK_SECTION, null, ConfigConstants.CONFIG_KEY_BUILD_BITMAPS, false);
+    git.gc().call();
+    return git;
+  }
+
+  private static long blame(Git git, boolean reuseReaders) throws GitAPIException {
+    long start = System.nanoTime();
+    new RepositoryBlameCommand(git.getRepository())
+      .setMultithreading(true)
+      .setReuseReaders(reuseReaders)
+      .call();
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  private static long median(long[] values) {
+    long[] sorted = values.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+
+  private static void deleteRecursively(Path dir) throws IOException {
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : paths.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+}
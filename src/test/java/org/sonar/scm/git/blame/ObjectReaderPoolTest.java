@@ -0,0 +1,87 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ObjectReaderPoolTest {
+  private final ObjectReader source = mock(ObjectReader.class);
+  private final ObjectReader reader1 = mock(ObjectReader.class);
+  private final ObjectReader reader2 = mock(ObjectReader.class);
+  private final ObjectReaderPool pool = new ObjectReaderPool(source);
+
+  @Test
+  public void borrow_whenReaderReleased_shouldReuseIt() {
+    when(source.newReader()).thenReturn(reader1, reader2);
+
+    ObjectReader first = pool.borrow();
+    pool.release(first);
+    ObjectReader second = pool.borrow();
+
+    assertThat(second).isSameAs(first);
+    assertThat(pool.size()).isOne();
+    verify(source, times(1)).newReader();
+  }
+
+  @Test
+  public void borrow_whenReaderInUse_shouldCreateAnother() {
+    when(source.newReader()).thenReturn(reader1, reader2);
+
+    assertThat(pool.borrow()).isSameAs(reader1);
+    assertThat(pool.borrow()).isSameAs(reader2);
+    assertThat(pool.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void close_shouldCloseAllReaders() {
+    when(source.newReader()).thenReturn(reader1, reader2);
+    ObjectReader first = pool.borrow();
+    pool.borrow();
+    pool.release(first);
+
+    pool.close();
+
+    verify(reader1).close();
+    verify(reader2).close();
+    assertThat(pool.size()).isZero();
+  }
+
+  @Test
+  public void release_whenReadersNotReused_shouldCloseIt() {
+    ObjectReaderPool notReusingPool = new ObjectReaderPool(source, false);
+    when(source.newReader()).thenReturn(reader1, reader2);
+
+    ObjectReader first = notReusingPool.borrow();
+    notReusingPool.release(first);
+    ObjectReader second = notReusingPool.borrow();
+
+    assertThat(first).isSameAs(reader1);
+    assertThat(second).isSameAs(reader2);
+    verify(reader1).close();
+    assertThat(notReusingPool.size()).isZero();
+  }
+}
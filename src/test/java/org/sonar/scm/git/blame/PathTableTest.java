@@ -0,0 +1,109 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class PathTableTest {
+  private final PathTable pathTable = new PathTable();
+  private final PathTable.Probe probe = new PathTable.Probe();
+
+  @Test
+  public void intern_whenEqualPaths_thenReturnsSameInstance() {
+    String path = pathTable.intern(new String("dir/file.txt"));
+
+    assertThat(pathTable.intern(new String("dir/file.txt"))).isSameAs(path);
+    assertThat(pathTable.intern("dir/other.txt")).isNotSameAs(path);
+    assertThat(pathTable.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_shouldReturnSameInstancesForEachWalk() throws IOException {
+    DirCache dirCache = dirCache("a.txt", "dir/b.txt", "dir/\u00e9.txt");
+
+    List<String> firstWalk = walk(dirCache);
+    List<String> secondWalk = walk(dirCache);
+
+    assertThat(firstWalk).containsExactly("a.txt", "dir/b.txt", "dir/\u00e9.txt");
+    for (int i = 0; i < firstWalk.size(); i++) {
+      assertThat(secondWalk.get(i)).isSameAs(firstWalk.get(i));
+    }
+    assertThat(pathTable.intern(new String("dir/b.txt"))).isSameAs(firstWalk.get(1));
+    assertThat(pathTable.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void find_shouldOnlyReturnPathsInTable() throws IOException {
+    DirCache dirCache = dirCache("a.txt", "dir/b.txt");
+    String path = pathTable.intern(new String("dir/b.txt"));
+
+    List<String> paths = new ArrayList<>();
+    try (TreeWalk treeWalk = new TreeWalk(mock(ObjectReader.class))) {
+      treeWalk.setRecursive(true);
+      treeWalk.addTree(new DirCacheIterator(dirCache));
+      while (treeWalk.next()) {
+        paths.add(pathTable.find(treeWalk, probe));
+      }
+    }
+
+    assertThat(paths).containsExactly(null, "dir/b.txt");
+    assertThat(paths.get(1)).isSameAs(path);
+    assertThat(pathTable.size()).isEqualTo(1);
+  }
+
+  private List<String> walk(DirCache dirCache) throws IOException {
+    List<String> paths = new ArrayList<>();
+    try (TreeWalk treeWalk = new TreeWalk(mock(ObjectReader.class))) {
+      treeWalk.setRecursive(true);
+      treeWalk.addTree(new DirCacheIterator(dirCache));
+      while (treeWalk.next()) {
+        paths.add(pathTable.get(treeWalk, probe));
+      }
+    }
+    return paths;
+  }
+
+  private static DirCache dirCache(String... paths) {
+    DirCache dirCache = DirCache.newInCore();
+    DirCacheBuilder builder = dirCache.builder();
+    for (String path : paths) {
+      DirCacheEntry entry = new DirCacheEntry(path);
+      entry.setFileMode(FileMode.REGULAR_FILE);
+      entry.setObjectId(ObjectId.zeroId());
+      builder.add(entry);
+    }
+    builder.finish();
+    return dirCache;
+  }
+}
@@ -22,10 +22,19 @@ package org.sonar.scm.git.blame;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.mutable.MutableInt;
@@ -33,10 +42,12 @@ import org.eclipse.jgit.api.BlameCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
 import org.sonar.scm.git.blame.BlameResult.FileBlame;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.groups.Tuple.tuple;
 import static org.sonar.scm.git.GitUtils.copyFile;
 import static org.sonar.scm.git.GitUtils.createFile;
@@ -509,6 +520,404 @@ public class RepositoryBlameCommandIT extends AbstractGitIT {
       .containsOnly(tuple("fileA", new String[]{c1, null}));
   }
 
+  @Test
+  public void blame_whenResultConsumerSet_thenFilesAreDeliveredOnceAndNotKeptInResult() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    createFile(baseDir, "fileB", "line1", "line2");
+    String c2 = commit("fileB");
+
+    List<FileBlame> delivered = new ArrayList<>();
+    BlameResult result = blame.setResultConsumer(delivered::add).call();
+
+    assertThat(result.getFileBlames()).isEmpty();
+    assertThat(delivered).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsExactlyInAnyOrder(tuple("fileA", new String[] {c1}), tuple("fileB", new String[] {c1, c2}));
+  }
+
+  @Test
+  public void blame_whenCacheSet_thenUnmodifiedFilesAreBlamedFromCache() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    Path cacheFile = createNewTempFolder().resolve("cache");
+
+    BlameCache cache = new BlameCache(cacheFile, Long.MAX_VALUE);
+    new RepositoryBlameCommand(git.getRepository()).setBlameCache(cache).setStartCommit(ObjectId.fromString(c1)).call();
+    assertThat(cache.getMissCount()).isEqualTo(2);
+
+    createFile(baseDir, "fileB", "line1", "line2");
+    String c2 = commit("fileB");
+
+    BlameCache reloadedCache = new BlameCache(cacheFile, Long.MAX_VALUE);
+    BlameResult result = blame.setBlameCache(reloadedCache).setStartCommit(ObjectId.fromString(c2)).call();
+
+    assertThat(reloadedCache.getHitCount()).isEqualTo(1);
+    assertThat(reloadedCache.getMissCount()).isEqualTo(1);
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsOnly(tuple("fileA", new String[] {c1}), tuple("fileB", new String[] {c1, c2}));
+  }
+
+  @Test
+  public void blame_whenTextComparatorChanged_thenCacheIsNotUsed() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    String c1 = commit("fileA");
+    Path cacheFile = createNewTempFolder().resolve("cache");
+    new RepositoryBlameCommand(git.getRepository()).setBlameCache(new BlameCache(cacheFile, Long.MAX_VALUE)).setStartCommit(ObjectId.fromString(c1)).call();
+
+    BlameCache reloadedCache = new BlameCache(cacheFile, Long.MAX_VALUE);
+    blame.setBlameCache(reloadedCache).setTextComparator(RawTextComparator.WS_IGNORE_ALL).setStartCommit(ObjectId.fromString(c1)).call();
+
+    assertThat(reloadedCache.getHitCount()).isZero();
+    assertThat(reloadedCache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void blame_whenPreviousResultSet_thenOnlyTraverseNewCommits() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    String c1 = commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2");
+    String c2 = commit("fileA");
+    BlameResult previousResult = new RepositoryBlameCommand(git.getRepository()).setStartCommit(ObjectId.fromString(c2)).call();
+
+    createFile(baseDir, "fileA", "line0", "line1", "line2");
+    String c3 = commit("fileA");
+
+    List<String> processedCommits = new ArrayList<>();
+    BlameResult result = blame
+      .setStartCommit(ObjectId.fromString(c3))
+      .setPreviousResult(ObjectId.fromString(c2), previousResult)
+      .setProgressCallBack((i, commit) -> processedCommits.add(commit))
+      .call();
+
+    assertThat(processedCommits).containsExactly(c3, c2);
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsOnly(tuple("fileA", new String[] {c3, c1, c2}));
+  }
+
+  @Test
+  public void blame_whenPreviousResultIsPartial_thenBlameItsUnassignedLinesFromHistory() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    String c1 = commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2");
+    String c2 = commit("fileA");
+    BlameResult previousResult = new RepositoryBlameCommand(git.getRepository()).setStartCommit(ObjectId.fromString(c2)).setDeadline(Duration.ZERO).call();
+    assertThat(previousResult.isPartial()).isTrue();
+
+    createFile(baseDir, "fileA", "line0", "line1", "line2");
+    String c3 = commit("fileA");
+
+    BlameResult result = blame
+      .setStartCommit(ObjectId.fromString(c3))
+      .setPreviousResult(ObjectId.fromString(c2), previousResult)
+      .call();
+
+    assertThat(result.isPartial()).isFalse();
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsOnly(tuple("fileA", new String[] {c3, c1, c2}));
+  }
+
+  @Test
+  public void blame_whenChildIsOlderThanParentAndGenerationNumbersComputed_thenProcessEachCommitOnce() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1", "line2");
+    createFile(baseDir, "fileB", "line1", "line2");
+    String c1 = commit(100_000, "fileA", "fileB");
+
+    // commit date older than its parent
+    createFile(baseDir, "fileA", "line1", "line2", "line3");
+    String c2 = commit(50_000, "fileA");
+
+    resetHard(c1);
+    createFile(baseDir, "fileB", "line1", "line2", "line3");
+    String c3 = commit(200_000, "fileB");
+    String c4 = merge(c2);
+
+    List<String> processedCommits = new ArrayList<>();
+    BlameResult result = blame
+      .setStartCommit(ObjectId.fromString(c4))
+      .setComputeGenerationNumbers(true)
+      .setProgressCallBack((i, commit) -> processedCommits.add(commit))
+      .call();
+
+    assertThat(processedCommits).containsExactly(c4, c3, c2, c1);
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsOnly(
+        tuple("fileA", new String[] {c1, c1, c2}),
+        tuple("fileB", new String[] {c1, c1, c3}));
+  }
+
+  @Test
+  public void blame_whenSimplifyHistory_thenSkipCommitsThatDontModifyBlamedFiles() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    createFile(baseDir, "fileB", "line1", "line2");
+    commit("fileB");
+    createFile(baseDir, "fileB", "line1", "line2", "line3");
+    commit("fileB");
+    createFile(baseDir, "fileA", "line1", "line2");
+    String c4 = commit("fileA");
+    createFile(baseDir, "fileB", "line1", "line2", "line3", "line4");
+    commit("fileB");
+
+    List<String> processedCommits = new ArrayList<>();
+    BlameResult result = blame
+      .setFilePaths(Set.of("fileA"))
+      .setSimplifyHistory(true)
+      .setProgressCallBack((i, commit) -> processedCommits.add(commit))
+      .call();
+
+    assertThat(processedCommits).containsExactly(ObjectId.zeroId().getName(), c4, c1);
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsOnly(tuple("fileA", new String[] {c1, c4}));
+  }
+
+  @Test
+  public void blame_whenCommitsReleasedDuringTraversal_thenSameResultAsWithout() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    String lastCommit = c1;
+    for (int i = 2; i < 8; i++) {
+      createFile(baseDir, "fileA", "line" + i, "line1");
+      lastCommit = commit("fileA");
+    }
+    resetHard(c1);
+    createFile(baseDir, "fileB", "line1", "line2");
+    commit("fileB");
+    String merge = merge(lastCommit);
+
+    BlameResult expected = new RepositoryBlameCommand(git.getRepository()).setStartCommit(ObjectId.fromString(merge)).call();
+    // the readers shared with the revision pool are closed every two commits, and used again afterwards
+    BlameResult result = blame
+      .setStartCommit(ObjectId.fromString(merge))
+      .setReleaseCommitsInterval(2)
+      .setComputeGenerationNumbers(true)
+      .setSimplifyHistory(true)
+      .setLookaheadDepth(2)
+      .setMultithreading(true)
+      .call();
+
+    assertThat(result.getFileBlames())
+      .extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsExactlyInAnyOrderElementsOf(expected.getFileBlames().stream()
+        .map(f -> tuple(f.getPath(), f.getCommitHashes()))
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void blame_whenLookaheadEnabled_thenSameResultAsWithout() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    commit("fileA", "fileB");
+    for (int i = 2; i < 8; i++) {
+      createFile(baseDir, "fileA", "line" + i, "line1");
+      commit("fileA");
+      if (i % 2 == 0) {
+        createFile(baseDir, "fileB", "line1", "line" + i);
+        commit("fileB");
+      }
+    }
+
+    BlameResult expected = new RepositoryBlameCommand(git.getRepository()).call();
+    BlameResult result = blame.setLookaheadDepth(3).setMultithreading(true).call();
+
+    assertThat(result.getFileBlames())
+      .extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsExactlyInAnyOrderElementsOf(expected.getFileBlames().stream()
+        .map(f -> tuple(f.getPath(), f.getCommitHashes()))
+        .collect(Collectors.toList()));
+    assertThat(result.getPrefetchUsedCount()).isPositive();
+    assertThat(expected.getPrefetchUsedCount()).isZero();
+    assertThat(expected.getPrefetchWastedCount()).isZero();
+  }
+
+  @Test
+  public void blame_whenLookaheadWithExecutor_thenPrefetchesRunInIt() throws IOException, GitAPIException, InterruptedException {
+    createFile(baseDir, "fileA", "line1");
+    commit("fileA");
+    for (int i = 2; i < 8; i++) {
+      createFile(baseDir, "fileA", "line" + i, "line1");
+      commit("fileA");
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    BlameResult result = blame.setLookaheadDepth(3).setExecutor(executor).call();
+    BlameResult withoutThreads = new RepositoryBlameCommand(git.getRepository()).setLookaheadDepth(3).call();
+
+    assertThat(result.getPrefetchUsedCount()).isPositive();
+    assertThat(executor.isShutdown()).isFalse();
+    // prefetches are not done without threads, as they would not overlap with the processing of the commits
+    assertThat(withoutThreads.getPrefetchUsedCount()).isZero();
+    assertThat(withoutThreads.getPrefetchWastedCount()).isZero();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void blame_whenFrontierWidthSet_thenSameResultAsWithout() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    for (int i = 2; i < 5; i++) {
+      createFile(baseDir, "fileA", "line1", "line" + i);
+      commit("fileA");
+    }
+    String branch = git.getRepository().resolve("HEAD").getName();
+    resetHard(c1);
+    for (int i = 2; i < 5; i++) {
+      createFile(baseDir, "fileB", "line1", "line" + i);
+      commit("fileB");
+    }
+    merge(branch);
+
+    BlameResult expected = new RepositoryBlameCommand(git.getRepository()).call();
+    List<String> processedCommits = new ArrayList<>();
+    BlameResult result = blame
+      .setComputeGenerationNumbers(true)
+      .setFrontierWidth(2)
+      .setProgressCallBack((i, commit) -> processedCommits.add(commit))
+      .call();
+
+    assertThat(processedCommits).doesNotHaveDuplicates();
+    assertThat(result.getFileBlames())
+      .extracting(FileBlame::getPath, FileBlame::getCommitHashes)
+      .containsExactlyInAnyOrderElementsOf(expected.getFileBlames().stream()
+        .map(f -> tuple(f.getPath(), f.getCommitHashes()))
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void blame_whenShardCountSet_thenSameResultAsWithout() throws IOException, GitAPIException {
+    createFile(baseDir, "dirA/file1", "line1");
+    createFile(baseDir, "dirA/file2", "line1");
+    createFile(baseDir, "dirB/file1", "line1");
+    createFile(baseDir, "fileC", "line1");
+    String c1 = commit("dirA/file1", "dirA/file2", "dirB/file1", "fileC");
+    createFile(baseDir, "dirA/file1", "line1", "line2");
+    createFile(baseDir, "dirB/file1", "line1", "line2");
+    commit("dirA/file1", "dirB/file1");
+    // moved to another top-level directory
+    moveFile(baseDir, "fileC", "dirB/fileC");
+    rm("fileC");
+    createFile(baseDir, "dirA/file2", "line1", "line3");
+    commit("dirB/fileC", "dirA/file2");
+
+    BlameResult expected = new RepositoryBlameCommand(git.getRepository()).call();
+    List<String> processedCommits = new ArrayList<>();
+    BlameResult result = blame
+      .setShardCount(3)
+      .setProgressCallBack((i, commit) -> processedCommits.add(commit))
+      .call();
+
+    assertThat(processedCommits).isNotEmpty();
+    assertThat(result.getFileBlames()).extracting(FileBlame::getPath)
+      .containsOnly("dirA/file1", "dirA/file2", "dirB/file1", "dirB/fileC");
+    assertThat(result.getFileBlameByPath().get("dirB/fileC").getCommitHashes()).containsExactly(c1);
+    assertThat(result.getFileBlames())
+      .extracting(FileBlame::getPath, FileBlame::getCommitHashes, FileBlame::getAuthorEmails)
+      .containsExactlyInAnyOrderElementsOf(expected.getFileBlames().stream()
+        .map(f -> tuple(f.getPath(), f.getCommitHashes(), f.getAuthorEmails()))
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void blame_whenExecutorSet_thenUseItWithoutShuttingItDown() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    createFile(baseDir, "fileB", "line1");
+    String c1 = commit("fileA", "fileB");
+    createFile(baseDir, "fileA", "line1", "line2");
+    String c2 = commit("fileA");
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      BlameResult result = blame.setExecutor(executor).call();
+
+      assertThat(executor.isShutdown()).isFalse();
+      assertThat(result.getFileBlameByPath().get("fileA").getCommitHashes()).containsExactly(c1, c2);
+      assertThat(result.getFileBlameByPath().get("fileB").getCommitHashes()).containsExactly(c1);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void blame_whenDeadlineReached_thenReturnPartialResult() throws IOException, GitAPIException {
+    createFile(baseDir, "fileA", "line1");
+    commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2");
+    commit("fileA");
+
+    List<FileBlame> delivered = new ArrayList<>();
+    BlameResult result = blame.setDeadline(Duration.ZERO).setResultConsumer(delivered::add).call();
+
+    assertThat(result.isPartial()).isTrue();
+    assertThat(delivered).hasSize(1);
+    FileBlame fileBlame = delivered.get(0);
+    assertThat(fileBlame.isComplete()).isFalse();
+    assertThat(fileBlame.isAssigned(0)).isFalse();
+    assertThat(fileBlame.getCommitHashes()).containsExactly(null, null);
+  }
+
+  @Test
+  public void callAsync_thenCompleteWithSameResultAsCall() throws Exception {
+    createFile(baseDir, "fileA", "line1");
+    String c1 = commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2");
+    String c2 = commit("fileA");
+
+    BlameResult result = blame.setDeadline(Duration.ofHours(1)).callAsync().get(1, TimeUnit.MINUTES);
+
+    assertThat(result.isPartial()).isFalse();
+    assertThat(result.getFileBlameByPath().get("fileA").getCommitHashes()).containsExactly(c1, c2);
+  }
+
+  @Test
+  public void callAsync_whenCancelled_thenStopAfterCurrentCommit() throws Exception {
+    createFile(baseDir, "fileA", "line1");
+    commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2");
+    commit("fileA");
+    createFile(baseDir, "fileA", "line1", "line2", "line3");
+    commit("fileA");
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(1);
+    List<String> processedCommits = Collections.synchronizedList(new ArrayList<>());
+    List<FileBlame> delivered = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<BlameResult> future = blame
+      .setProgressCallBack((i, commit) -> {
+        processedCommits.add(commit);
+        started.countDown();
+        awaitUninterruptibly(cancelled);
+      })
+      .setResultConsumer(f -> {
+        delivered.add(f);
+        finished.countDown();
+      })
+      .callAsync();
+
+    assertThat(started.await(1, TimeUnit.MINUTES)).isTrue();
+    assertThat(future.cancel(false)).isTrue();
+    cancelled.countDown();
+
+    assertThat(finished.await(1, TimeUnit.MINUTES)).isTrue();
+    assertThat(future.isCancelled()).isTrue();
+    assertThatThrownBy(future::get).isInstanceOf(CancellationException.class);
+    assertThat(processedCommits).hasSize(1);
+    assertThat(delivered).extracting(FileBlame::getPath, FileBlame::isComplete).containsOnly(tuple("fileA", false));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private static void assertAllBlameCommits(BlameResult result, String expectedCommit) {
     Collection<String> allBlameCommits = result.getFileBlames().stream()
       .flatMap(f -> Arrays.stream(f.getCommitHashes()))
@@ -0,0 +1,58 @@
+/*
+ * Git Files Blame
+ * Copyright (C) 2009-2025 SonarSource SA
+ * mailto:info AT sonarsource DOT com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.sonar.scm.git.blame;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadsTest {
+  @Test
+  public void newVirtualThreadPerTaskExecutor_shouldBeAvailableFromJava21() throws ExecutionException, InterruptedException {
+    ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+
+    if (Runtime.version().feature() < 21) {
+      assertThat(executor).isNull();
+    } else {
+      assertThat(executor).isNotNull();
+      assertThat(executor.submit(() -> Thread.currentThread().getName()).get()).isNotNull();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void newThreadFactory_shouldBeAvailableFromJava21() throws InterruptedException {
+    ThreadFactory factory = VirtualThreads.newThreadFactory();
+
+    if (Runtime.version().feature() < 21) {
+      assertThat(factory).isNull();
+    } else {
+      assertThat(factory).isNotNull();
+      Thread thread = factory.newThread(() -> {
+      });
+      assertThat(thread.getName()).startsWith("git-blame-");
+      thread.start();
+      thread.join();
+    }
+  }
+}
@@ -59,4 +59,9 @@ public class WorkDirGraphNodeTest {
     assertThat(underTest.getTime()).isEqualTo(Integer.MAX_VALUE);
   }
 
+  @Test
+  public void getGeneration_returns_int_max() {
+    assertThat(underTest.getGeneration()).isEqualTo(Integer.MAX_VALUE);
+  }
+
 }